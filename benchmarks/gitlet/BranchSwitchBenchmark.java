@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.util.Random;
+
+/** Measures the latency of switching between two branches that differ in
+ *  all of their files, or in the first given number of them. Only the
+ *  files that differ are written, so MB/s counts those. The report each
+ *  switch prints is left out of the timings' output. Objects are stored
+ *  uncompressed, so restores are plain copies. Set SCRATCH_DIR in
+ *  benchmarks/run.sh to compare file systems, e.g. /dev/shm for tmpfs or
+ *  a directory on ext4.
+ *  Usage: BranchSwitchBenchmark [files] [file size in KB] [switches]
+ *         [changed files]
+ *  @author Max Yao
+ */
+public class BranchSwitchBenchmark {
+
+    /** Runs the benchmark with the file count, size and number of switches
+     *  in ARGS. */
+    public static void main(String... args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int sizeKB = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int switches = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int changed = args.length > 3 ? Integer.parseInt(args[3]) : files;
+        Random random = new Random(61);
+
+        Main.doInit("init");
+        Config.set(Config.COMPRESSION, "none");
+        byte[] contents = new byte[sizeKB << 10];
+        for (int i = 0; i < files; i += 1) {
+            random.nextBytes(contents);
+            writeFile(name(i), contents);
+            Main.doAdd("add", name(i));
+        }
+        Main.doCommit("commit", "master files");
+        Main.doBranch("branch", "other");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        for (int i = 0; i < changed; i += 1) {
+            random.nextBytes(contents);
+            writeFile(name(i), contents);
+            Main.doAdd("add", name(i));
+        }
+        Main.doCommit("commit", "other files");
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+
+        System.out.printf("%d files of %d KB, %d changed, %d switches%n",
+                files, sizeKB, changed, switches);
+        PrintStream stdout = System.out;
+        System.out.printf("%16s %10s%n", "per switch (ms)", "MB/s");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        long start = System.nanoTime();
+        for (int i = 0; i < switches; i += 1) {
+            Main.doCheckOutBranchNameCase3("checkout",
+                    i % 2 == 0 ? "other" : "master");
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / switches;
+        System.setOut(stdout);
+        System.out.printf("%16.2f %10.1f%n", millis,
+                (double) changed * sizeKB / 1024 / (millis / 1000));
+    }
+
+    /** Returns the name of the Ith file. */
+    private static String name(int i) {
+        return String.format("file%04d.bin", i);
+    }
+
+    /** Replaces the working file NAME with CONTENTS. */
+    private static void writeFile(String name, byte[] contents)
+            throws IOException {
+        try (OutputStream out = new FileOutputStream(name)) {
+            out.write(contents);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Measures how often merges find the commits, tree nodes and objects
+ *  they load in the in-memory caches, as hits/misses, and how long a merge
+ *  takes with the caches kept and with them emptied first, as every command
+ *  run on its own starts. Two branches change different halves of the
+ *  files, so each merge is clean; after each one the current branch is
+ *  reset to where it was.
+ *  Usage: CacheBenchmark [files] [commits per branch] [merges]
+ *  @author Max Yao
+ */
+public class CacheBenchmark {
+
+    /** Milliseconds to wait before the first commit of the second branch.
+     *  A commitID only hashes the parent and the time to the second, so
+     *  the first commits of both branches must be a second apart. */
+    private static final long SECOND_MILLIS = 1100;
+
+    /** Runs the benchmark with the file count, history length and number
+     *  of merges in ARGS. */
+    public static void main(String... args)
+            throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int merges = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Main.doInit("init");
+        for (int i = 0; i < files; i += 1) {
+            Utils.writeContents(new File(name(i)), "base " + i + "\n");
+        }
+        String[] names = new String[files + 1];
+        names[0] = "add";
+        for (int i = 0; i < files; i += 1) {
+            names[i + 1] = name(i);
+        }
+        Main.doAdd(names);
+        Main.doCommit("commit", "base");
+        Main.doBranch("branch", "other");
+        commitChanges(files, commits, 0, "master");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        Thread.sleep(SECOND_MILLIS);
+        commitChanges(files, commits, files / 2, "other");
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+        String head = Branch.loadBranch().getBranchHeadCommitID("master");
+
+        System.out.printf("%d files, %d commits per branch, %d merges%n",
+                files, commits, merges);
+        System.out.printf("%-8s %14s %14s %14s %14s%n", "caches",
+                "per merge (ms)", "commits", "tree nodes", "objects");
+        for (boolean warm : new boolean[] {false, true}) {
+            long[] before = counts();
+            long total = 0;
+            for (int i = 0; i < merges; i += 1) {
+                if (!warm) {
+                    Commit.CACHE.clear();
+                    Tree.CACHE.clear();
+                    ObjectStore.BLOBS.clear();
+                }
+                long start = System.nanoTime();
+                Main.doMerge("merge", "other");
+                total += System.nanoTime() - start;
+                Main.doReset("reset", head);
+            }
+            long[] after = counts();
+            System.out.printf("%-8s %14.2f %14s %14s %14s%n",
+                    warm ? "kept" : "emptied", total / 1e6 / merges,
+                    ratio(before, after, 0), ratio(before, after, 2),
+                    ratio(before, after, 4));
+        }
+    }
+
+    /** Returns the hits and misses of the commit, tree node and object
+     *  caches so far. */
+    private static long[] counts() {
+        return new long[] {
+            Commit.CACHE.hits(), Commit.CACHE.misses(),
+            Tree.CACHE.hits(), Tree.CACHE.misses(),
+            ObjectStore.BLOBS.hits(), ObjectStore.BLOBS.misses()
+        };
+    }
+
+    /** Returns "HITS/MISSES" of the cache whose counts are at I in BEFORE
+     *  and AFTER. */
+    private static String ratio(long[] before, long[] after, int i) {
+        return (after[i] - before[i]) + "/" + (after[i + 1] - before[i + 1]);
+    }
+
+    /** Makes COMMITS commits on BRANCH, each changing one of the half of
+     *  FILES files starting at FIRST. */
+    private static void commitChanges(int files, int commits, int first,
+                                      String branch) {
+        for (int i = 0; i < commits; i += 1) {
+            String file = name(first + i % (files / 2));
+            Utils.writeContents(new File(file), branch + " " + i + "\n");
+            Main.doAdd("add", file);
+            Main.doCommit("commit", branch + " " + i);
+        }
+    }
+
+    /** Returns the name of the file numbered I. */
+    private static String name(int i) {
+        return String.format("file%05d.txt", i);
+    }
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Compares the loose layout of /.gitlet/files/ with the delta-compressed
+ *  pack: disk usage, and the latency of restoring old versions of a
+ *  log-like file that is appended to and lightly edited in every commit.
+ *  Run through benchmarks/run.sh, which gives it an empty directory.
+ *  Usage: DeltaBenchmark [file size in MB] [number of commits]
+ *  @author Max Yao
+ */
+public class DeltaBenchmark {
+
+    /** Name of the tracked file. */
+    private static final String FILE = "server.txt";
+
+    /** Number of versions restored for each latency measurement. */
+    private static final int SAMPLES = 20;
+
+    /** Runs the benchmark with the size and commit count in ARGS. */
+    public static void main(String... args) {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Random random = new Random(61);
+
+        Main.doInit("init");
+        StringBuilder contents = new StringBuilder();
+        int line = 0;
+        while (contents.length() < sizeMB << 20) {
+            appendLine(contents, line, random);
+            line += 1;
+        }
+        List<String> versions = new ArrayList<>();
+        for (int i = 0; i < commits; i += 1) {
+            for (int k = 0; k < 20; k += 1) {
+                appendLine(contents, line, random);
+                line += 1;
+            }
+            int at = random.nextInt(contents.length() - 1);
+            contents.setCharAt(at, (char) ('a' + random.nextInt(26)));
+            Utils.writeContents(new File(FILE), contents.toString());
+            Main.doAdd("add", FILE);
+            Main.doCommit("commit", "edit " + i);
+            versions.add(Branch.loadBranch().getBranchHeadCommitID("master"));
+        }
+
+        long looseBytes = directorySize(new File(ObjectStore.FILES_DIR));
+        double looseRestore = restoreMillis(versions, false);
+
+        long start = System.nanoTime();
+        ObjectStore.repack(Commit.storedNameHints());
+        double repackSeconds = (System.nanoTime() - start) / 1e9;
+        long packBytes = directorySize(new File(ObjectStore.PACK_DIR));
+        double coldRestore = restoreMillis(versions, true);
+        double warmRestore = restoreMillis(versions, false);
+
+        System.out.printf("%d commits of a %d MB file%n", commits, sizeMB);
+        System.out.printf("%-22s %12s %14s%n", "layout", "disk (MB)",
+                "restore (ms)");
+        System.out.printf("%-22s %12.1f %14.2f%n", "loose files",
+                looseBytes / 1048576.0, looseRestore);
+        System.out.printf("%-22s %12.1f %14.2f%n", "pack, cold cache",
+                packBytes / 1048576.0, coldRestore);
+        System.out.printf("%-22s %12.1f %14.2f%n", "pack, warm cache",
+                packBytes / 1048576.0, warmRestore);
+        System.out.printf("repack took %.2f s%n", repackSeconds);
+    }
+
+    /** Appends line number N of a log-like file to CONTENTS using
+     *  RANDOM. */
+    private static void appendLine(StringBuilder contents, int n,
+                                   Random random) {
+        contents.append(String.format("%08d INFO request %d served in %d ms"
+                + " by worker-%d%n", n, random.nextInt(1 << 20),
+                random.nextInt(500), random.nextInt(16)));
+    }
+
+    /** Returns the average time in milliseconds to restore the tracked file
+     *  from SAMPLES evenly spaced commits in VERSIONS, newest first. If
+     *  COLD, the cache of reconstructed objects is emptied before each
+     *  restore. */
+    private static double restoreMillis(List<String> versions, boolean cold) {
+        long total = 0;
+        for (int i = 0; i < SAMPLES; i += 1) {
+            String id = versions.get(versions.size() - 1
+                    - i * (versions.size() - 1) / (SAMPLES - 1));
+            Commit commit = Commit.loadCommit(id);
+            if (cold) {
+                ObjectStore.clearCache();
+            }
+            long start = System.nanoTime();
+            commit.restoreFileFromFiles(FILE);
+            total += System.nanoTime() - start;
+        }
+        return total / 1e6 / SAMPLES;
+    }
+
+    /** Returns the total size of the plain files in DIR. */
+    private static long directorySize(File dir) {
+        long total = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                total += f.length();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import java.util.Random;
+
+/** Measures what each core.durability mode costs: the time of adding and
+ *  committing a batch of new files, as a bulk import does, repeated for a
+ *  number of commits. One untimed round is run first so the JIT has
+ *  warmed up. Run it on the file system of interest through SCRATCH_DIR,
+ *  since the cost of syncing differs widely between them.
+ *  Usage: DurabilityBenchmark [commits] [files per commit]
+ *  @author Max Yao
+ */
+public class DurabilityBenchmark {
+
+    /** Size of every file added. */
+    private static final int FILE_BYTES = 4 << 10;
+
+    /** Runs the benchmark with the number of commits and files in ARGS. */
+    public static void main(String... args) {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Random random = new Random(97);
+
+        Main.doInit("init");
+        Config.set(Config.GC_AUTO, "0");
+        Config.set(Config.DURABILITY, Journal.NONE);
+        millis("warmup", commits, files, random);
+        System.out.printf("%d commits of %d files of %d KB%n", commits,
+                files, FILE_BYTES >> 10);
+        System.out.printf("%-8s %16s %12s%n", "mode", "per commit (ms)",
+                "files/s");
+        String[] modes = {Journal.NONE, Journal.BATCH, Journal.ALWAYS};
+        for (String mode : modes) {
+            Config.set(Config.DURABILITY, mode);
+            double millis = millis(mode, commits, files, random);
+            System.out.printf("%-8s %16.1f %12.0f%n", mode, millis / commits,
+                    commits * files / (millis / 1000));
+        }
+    }
+
+    /** Returns the milliseconds taken to make COMMITS commits, each adding
+     *  FILES new files of contents from RANDOM in a directory under DIR,
+     *  with what the commands print silenced. */
+    private static double millis(String dir, int commits, int files,
+                                 Random random) {
+        byte[] contents = new byte[FILE_BYTES];
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < commits; i += 1) {
+                File commitDir = new File(String.format("%s/%03d", dir, i));
+                commitDir.mkdirs();
+                for (int j = 0; j < files; j += 1) {
+                    random.nextBytes(contents);
+                    Utils.writeContents(new File(commitDir,
+                            String.format("f%04d", j)), contents);
+                }
+                Main.doAdd("add", commitDir.getPath());
+                Main.doCommit("commit", commitDir.getPath());
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import java.nio.charset.StandardCharsets;
+
+/** Adds, commits and checks out a single file of several gigabytes and
+ *  reports the time and peak heap of each step. None of them should need
+ *  heap in proportion to the file, so running this under a small -Xmx,
+ *  e.g. JAVA_OPTS=-Xmx64m, with a file many times larger proves that
+ *  they stream; a step that loaded the file would fail with an
+ *  OutOfMemoryError. The file is made of distinct text lines, so it
+ *  compresses like a large log. Run through benchmarks/run.sh, which gives
+ *  it an empty directory.
+ *  Usage: LargeFileBenchmark [file size in MB] [core.compression]
+ *  @author Max Yao
+ */
+public class LargeFileBenchmark {
+
+    /** Name of the tracked file. */
+    private static final String FILE = "large.txt";
+
+    /** Runs the benchmark with the size and codec in ARGS. */
+    public static void main(String... args) throws IOException {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        String codec = args.length > 1 ? args[1] : "deflate-fast";
+
+        Main.doInit("init");
+        Config.set(Config.COMPRESSION, codec);
+        File file = new File(FILE);
+        writeFile(file, (long) sizeMB << 20);
+        String hash = Utils.storedFileName(file);
+        System.out.printf("file %d MB, codec %s, max heap %d MB%n", sizeMB,
+                codec, Runtime.getRuntime().maxMemory() >> 20);
+        System.out.printf("%-10s %10s %10s %16s%n", "step", "seconds",
+                "MB/s", "peak heap (MB)");
+
+        resetPeaks();
+        long start = System.nanoTime();
+        Main.doAdd("add", FILE);
+        report("add", start, sizeMB);
+
+        resetPeaks();
+        start = System.nanoTime();
+        Main.doCommit("commit", "large file");
+        report("commit", start, sizeMB);
+
+        file.delete();
+        resetPeaks();
+        start = System.nanoTime();
+        Main.doCheckOutFileNameCase1("checkout", "--", FILE);
+        report("checkout", start, sizeMB);
+
+        if (!Utils.storedFileName(file).equals(hash)) {
+            throw new IllegalStateException("checked out file differs");
+        }
+    }
+
+    /** Writes SIZE bytes of distinct text lines to FILE. */
+    private static void writeFile(File file, long size) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(file), Compression.BUFFER_SIZE)) {
+            long written = 0;
+            for (long line = 0; written < size; line += 1) {
+                byte[] text = lineBytes(line);
+                int length = (int) Math.min(text.length, size - written);
+                out.write(text, 0, length);
+                written += length;
+            }
+        }
+    }
+
+    /** Returns the text of line number LINE. */
+    private static byte[] lineBytes(long line) {
+        return ("line " + line + ": value " + Long.toHexString(
+                line * 0x9e3779b97f4a7c15L) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Resets the peak usage of every heap memory pool. */
+    private static void resetPeaks() {
+        System.gc();
+        for (MemoryPoolMXBean pool
+                : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** Prints the time since START and the peak heap of STEP, which
+     *  processed SIZEMB megabytes. */
+    private static void report(String step, long start, int sizeMB) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool
+                : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%-10s %10.2f %10.1f %16.1f%n", step, seconds,
+                sizeMB / seconds, peak / 1048576.0);
+    }
+}
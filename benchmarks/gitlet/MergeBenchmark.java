@@ -0,0 +1,98 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Random;
+
+/** Measures the line merge of a large text file both branches edited:
+ *  first LineMerge on its own, in memory, then the whole merge command.
+ *  Each branch rewrites lines picked at random, so a few edits of the two
+ *  may touch the same lines and conflict.
+ *  Usage: MergeBenchmark [file size in MB] [edits per branch]
+ *  @author Max Yao
+ */
+public class MergeBenchmark {
+
+    /** Length of every line of the file, with its newline. */
+    private static final int LINE_BYTES = 64;
+
+    /** Milliseconds to wait before the first commit of the second branch.
+     *  A commitID only hashes the parent and the time to the second, so
+     *  the first commits of both branches must be a second apart. */
+    private static final long SECOND_MILLIS = 1100;
+
+    /** Runs the benchmark with the file size and number of edits in
+     *  ARGS. */
+    public static void main(String... args)
+            throws IOException, InterruptedException {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int lines = (sizeMB << 20) / LINE_BYTES;
+        Random random = new Random(17);
+        byte[] base = text(lines, null, 0, random);
+        byte[] ours = text(lines, "ours", edits, random);
+        byte[] theirs = text(lines, "theirs", edits, random);
+
+        System.out.printf("%d MB, %d lines, %d edits per branch%n", sizeMB,
+                lines, edits);
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int conflicts = LineMerge.merge(base, ours, theirs, merged);
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("LineMerge: %.0f ms, %.1f MB/s, %d conflicts, "
+                + "%d bytes written%n", millis,
+                3.0 * sizeMB / (millis / 1000), conflicts, merged.size());
+
+        File file = new File("large.txt");
+        Main.doInit("init");
+        Utils.writeContents(file, (Object) base);
+        Main.doAdd("add", file.getName());
+        Main.doCommit("commit", "base");
+        Main.doBranch("branch", "other");
+        Utils.writeContents(file, (Object) ours);
+        Main.doAdd("add", file.getName());
+        Main.doCommit("commit", "ours");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        Thread.sleep(SECOND_MILLIS);
+        Utils.writeContents(file, (Object) theirs);
+        Main.doAdd("add", file.getName());
+        Main.doCommit("commit", "theirs");
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+        start = System.nanoTime();
+        Main.doMerge("merge", "other");
+        System.out.printf("merge command: %.0f ms%n",
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    /** Returns a text of LINES lines, of which EDITS picked with RANDOM
+     *  are rewritten with TAG. */
+    private static byte[] text(int lines, String tag, int edits,
+                               Random random) {
+        String[] text = new String[lines];
+        for (int i = 0; i < lines; i += 1) {
+            text[i] = line("line " + i);
+        }
+        for (int i = 0; i < edits; i += 1) {
+            int line = random.nextInt(lines);
+            text[line] = line(tag + " " + i + " at line " + line);
+        }
+        StringBuilder result = new StringBuilder(lines * LINE_BYTES);
+        for (String line : text) {
+            result.append(line);
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns TEXT padded to a line of LINE_BYTES, newline included. */
+    private static String line(String text) {
+        StringBuilder line = new StringBuilder(text);
+        while (line.length() < LINE_BYTES - 1) {
+            line.append('.');
+        }
+        return line.append('\n').toString();
+    }
+}
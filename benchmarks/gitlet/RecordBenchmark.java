@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/** Compares Java serialization with the RecordIO binary format for the
+ *  Commit, Stage and Branch records: encoded size, and encode and decode
+ *  time per record. Every measurement is preceded by a warm-up pass so the
+ *  JIT has compiled both codecs. Run through benchmarks/run.sh, which gives
+ *  it an empty directory.
+ *  Usage: RecordBenchmark [staged files and branches] [iterations]
+ *  @author Max Yao
+ */
+public class RecordBenchmark {
+
+    /** Runs the benchmark with the record size and iteration count in
+     *  ARGS. */
+    public static void main(String... args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        Main.doInit("init");
+        Commit commit = new Commit(Branch.loadBranch()
+                .getBranchHeadCommitID("master"), "a commit message");
+        Stage stage = Stage.loadStage();
+        Branch branch = Branch.loadBranch();
+        for (int i = 0; i < entries; i += 1) {
+            String file = "dir" + (i % 37) + "/file" + i + ".txt";
+            stage.updateAddMap(file, true);
+            stage.updateRemoveMap(file, false);
+            stage.updateOnStage(file, Utils.sha1(file));
+            branch.updateBranchHead("branch-" + i, Utils.sha1("b" + i));
+        }
+
+        System.out.printf("%-8s %-14s %10s %12s %12s%n", "record", "codec",
+                "bytes", "encode (us)", "decode (us)");
+        report("Commit", commit, iterations);
+        report("Stage", stage, Math.max(1, iterations * 10 / entries));
+        report("Branch", branch, Math.max(1, iterations * 10 / entries));
+    }
+
+    /** Prints the size and timings of both codecs for RECORD, named KIND,
+     *  averaged over ITERATIONS. */
+    private static void report(String kind, Object record, int iterations)
+            throws Exception {
+        byte[] serialized = serialize(record);
+        byte[] binary = encode(record);
+        double[] javaTimes = new double[2];
+        double[] binaryTimes = new double[2];
+        for (int pass = 0; pass < 2; pass += 1) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                serialize(record);
+            }
+            javaTimes[0] = (System.nanoTime() - start) / 1e3 / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                deserialize(serialized);
+            }
+            javaTimes[1] = (System.nanoTime() - start) / 1e3 / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                encode(record);
+            }
+            binaryTimes[0] = (System.nanoTime() - start) / 1e3 / iterations;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i += 1) {
+                decode(record, binary);
+            }
+            binaryTimes[1] = (System.nanoTime() - start) / 1e3 / iterations;
+        }
+        System.out.printf("%-8s %-14s %10d %12.2f %12.2f%n", kind,
+                "serialization", serialized.length, javaTimes[0],
+                javaTimes[1]);
+        System.out.printf("%-8s %-14s %10d %12.2f %12.2f%n", kind,
+                "RecordIO", binary.length, binaryTimes[0], binaryTimes[1]);
+    }
+
+    /** Returns RECORD written with Java serialization. */
+    private static byte[] serialize(Object record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(record);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the object Java serialization wrote to DATA. */
+    private static Object deserialize(byte[] data) throws Exception {
+        try (ObjectInputStream in =
+                     new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    /** Returns the fields of RECORD in the RecordIO format, as stored after
+     *  the record header. */
+    private static byte[] encode(Object record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(bytes))) {
+            out.writeInt(0);
+            out.writeByte(RecordIO.VERSION);
+            if (record instanceof Commit) {
+                ((Commit) record).encode(out);
+            } else if (record instanceof Stage) {
+                ((Stage) record).encode(out);
+            } else {
+                ((Branch) record).encode(out);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the record of the same kind as RECORD decoded from DATA. */
+    private static Object decode(Object record, byte[] data)
+            throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(data));
+        RecordIO.readHeader(in, 0);
+        if (record instanceof Commit) {
+            return Commit.decode(in);
+        } else if (record instanceof Stage) {
+            return Stage.decode(in);
+        }
+        return Branch.decode(in);
+    }
+}
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import java.util.Random;
+
+/** Measures how switching between two branches that differ in every file
+ *  scales with the core.ioThreads setting, which sets how many files
+ *  checkout restores at once. Each thread count is timed over a switch
+ *  there and one back, with what checkout prints silenced. One pair of
+ *  switches is run first so the JIT has warmed up.
+ *  Run through benchmarks/run.sh, which gives it an empty directory.
+ *  Usage: RestoreBenchmark [files] [file size in KB] [most threads]
+ *  @author Max Yao
+ */
+public class RestoreBenchmark {
+
+    /** Milliseconds to wait before the first commit of the second branch.
+     *  A commitID only hashes the parent and the time to the second, so
+     *  the first commits of both branches must be a second apart. */
+    private static final long SECOND_MILLIS = 1100;
+
+    /** Runs the benchmark with the file count, size and thread count in
+     *  ARGS. */
+    public static void main(String... args) throws InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int sizeKB = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int most = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+        Random random = new Random(83);
+
+        Main.doInit("init");
+        Config.set(Config.GC_AUTO, "0");
+        byte[] contents = new byte[sizeKB << 10];
+        writeAll(files, contents, random);
+        Main.doAdd("add", ".");
+        Main.doCommit("commit", "master");
+        Main.doBranch("branch", "other");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        Thread.sleep(SECOND_MILLIS);
+        writeAll(files, contents, random);
+        Main.doAdd("add", ".");
+        Main.doCommit("commit", "other");
+        millis();
+
+        System.out.printf("%d files of %d KB, %d processors%n", files,
+                sizeKB, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %14s %10s %10s%n", "threads",
+                "switch (ms)", "MB/s", "speedup");
+        double single = 0;
+        for (int threads = 1; threads <= most; threads *= 2) {
+            Config.set(Config.IO_THREADS, Integer.toString(threads));
+            double millis = millis();
+            if (threads == 1) {
+                single = millis;
+            }
+            System.out.printf("%-8d %14.1f %10.1f %10.2f%n", threads,
+                    millis, (double) files * sizeKB / 1024 / (millis / 1000),
+                    single / millis);
+        }
+    }
+
+    /** Returns the mean milliseconds of a switch to master and one back to
+     *  other, which must each write every file. */
+    private static double millis() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        long start = System.nanoTime();
+        try {
+            Main.doCheckOutBranchNameCase3("checkout", "master");
+            Main.doCheckOutBranchNameCase3("checkout", "other");
+        } finally {
+            System.setOut(out);
+        }
+        return (System.nanoTime() - start) / 2e6;
+    }
+
+    /** Writes FILES files of random CONTENTS from RANDOM, in directories of
+     *  100. */
+    private static void writeAll(int files, byte[] contents, Random random) {
+        for (int i = 0; i < files; i += 1) {
+            File file = new File(String.format("d%03d/f%05d.txt", i / 100,
+                    i));
+            file.getParentFile().mkdirs();
+            random.nextBytes(contents);
+            Utils.writeContents(file, (Object) contents);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.File;
+
+import java.util.Random;
+
+/** Measures how the modifications check of status scales with the
+ *  core.parallelism setting on a tree of many committed files. Each thread
+ *  count is timed twice: cold, with no FileStats kept, so every file is
+ *  hashed, and warm, with a FileStat kept for every file, so none is read.
+ *  One cold check is run first so the JIT has warmed up.
+ *  Run through benchmarks/run.sh, which gives it an empty directory.
+ *  Usage: StatusBenchmark [files] [file size in KB] [most threads]
+ *  @author Max Yao
+ */
+public class StatusBenchmark {
+
+    /** Runs the benchmark with the file count, size and thread count in
+     *  ARGS. */
+    public static void main(String... args) throws InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int sizeKB = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int most = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        Random random = new Random(61);
+
+        Main.doInit("init");
+        Config.set(Config.GC_AUTO, "0");
+        byte[] contents = new byte[sizeKB << 10];
+        String[] names = new String[files];
+        for (int i = 0; i < files; i += 1) {
+            names[i] = String.format("file%06d.txt", i);
+            random.nextBytes(contents);
+            Utils.writeContents(new File(names[i]), contents);
+        }
+        Stage stage = Stage.loadStage();
+        Commit initial = Branch.loadBranch().getBranchHeadCommitObj("master");
+        FileStat[] saved = WorkingFiles.saveAll(stage, initial, names);
+        for (int i = 0; i < files; i += 1) {
+            stage.updateStat(names[i], saved[i]);
+            stage.updateAddMap(names[i], true);
+            stage.updateRemoveMap(names[i], false);
+            stage.updateOnStage(names[i], saved[i].hash());
+        }
+        stage.storeStage();
+        Main.doCommit("commit", "many files");
+        Thread.sleep(FileStat.RACY_MILLIS + 100);
+        Commit head = Branch.loadBranch().getBranchHeadCommitObj("master");
+        Stage warm = Stage.loadStage();
+        Main.modifiedUnstaged(head, warm);
+        millis(head, new Stage());
+
+        System.out.printf("%d files of %d KB, %d processors%n", files,
+                sizeKB, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %10s %10s %10s%n", "threads", "cold (ms)",
+                "speedup", "warm (ms)");
+        double single = 0;
+        for (int threads = 1; threads <= most; threads *= 2) {
+            Config.set(Config.PARALLELISM, Integer.toString(threads));
+            double cold = millis(head, new Stage());
+            if (threads == 1) {
+                single = cold;
+            }
+            System.out.printf("%-8d %10.1f %10.2f %10.1f%n", threads, cold,
+                    single / cold, millis(head, warm));
+        }
+    }
+
+    /** Returns the milliseconds the modifications check of HEAD takes with
+     *  the FileStats of STAGE, which must find nothing modified. */
+    private static double millis(Commit head, Stage stage) {
+        long start = System.nanoTime();
+        String modified = Main.modifiedUnstaged(head, stage);
+        double result = (System.nanoTime() - start) / 1e6;
+        if (!modified.isEmpty()) {
+            throw new IllegalStateException("unexpected changes");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Random;
+
+/** Measures a merge that takes the given branch's version of many files,
+ *  against checking out that branch, which writes the same files and
+ *  little else. The current branch changes one other file, so the merge
+ *  is not a fast-forward.
+ *  Usage: WideMergeBenchmark [files] [file size in KB]
+ *  @author Max Yao
+ */
+public class WideMergeBenchmark {
+
+    /** Milliseconds to wait before the first commit of the second branch.
+     *  A commitID only hashes the parent and the time to the second, so
+     *  the first commits of both branches must be a second apart. */
+    private static final long SECOND_MILLIS = 1100;
+
+    /** Runs the benchmark with the file count and size in ARGS. */
+    public static void main(String... args)
+            throws IOException, InterruptedException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int sizeKB = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        Random random = new Random(29);
+
+        Main.doInit("init");
+        byte[] contents = new byte[sizeKB << 10];
+        writeAll(files, contents, random);
+        Utils.writeContents(new File("own.txt"), "base\n");
+        Main.doAdd("add", ".");
+        Main.doCommit("commit", "base");
+        Main.doBranch("branch", "other");
+        Utils.writeContents(new File("own.txt"), "master\n");
+        Main.doAdd("add", "own.txt");
+        Main.doCommit("commit", "master");
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        Thread.sleep(SECOND_MILLIS);
+        writeAll(files, contents, random);
+        Main.doAdd("add", ".");
+        Main.doCommit("commit", "other");
+
+        System.out.printf("%d files of %d KB%n", files, sizeKB);
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+        long start = System.nanoTime();
+        Main.doCheckOutBranchNameCase3("checkout", "other");
+        double checkout = (System.nanoTime() - start) / 1e6;
+        Main.doCheckOutBranchNameCase3("checkout", "master");
+        start = System.nanoTime();
+        Main.doMerge("merge", "other");
+        double merge = (System.nanoTime() - start) / 1e6;
+        System.out.printf("checkout: %.0f ms, merge: %.0f ms, %.2fx%n",
+                checkout, merge, merge / checkout);
+    }
+
+    /** Writes FILES files of random CONTENTS from RANDOM, in directories of
+     *  100. */
+    private static void writeAll(int files, byte[] contents, Random random) {
+        for (int i = 0; i < files; i += 1) {
+            File file = new File(String.format("d%03d/f%05d.txt", i / 100,
+                    i));
+            file.getParentFile().mkdirs();
+            random.nextBytes(contents);
+            Utils.writeContents(file, (Object) contents);
+        }
+    }
+}
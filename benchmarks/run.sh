@@ -0,0 +1,20 @@
+#!/bin/bash
+# Compiles gitlet together with the benchmarks and runs one of them inside
+# a fresh scratch directory, since gitlet always works on the current
+# directory. Set SCRATCH_DIR to choose the filesystem the benchmark runs on
+# and JAVA_OPTS to pass flags to the JVM.
+# Usage: benchmarks/run.sh <benchmark class> [args...]
+#   e.g. benchmarks/run.sh DeltaBenchmark 8 200
+set -e
+if [ $# -lt 1 ]; then
+    echo "Usage: $0 <benchmark class> [args...]" >&2
+    exit 1
+fi
+root=$(cd "$(dirname "$0")/.." && pwd)
+classes=$(mktemp -d)
+scratch=$(mktemp -d "${SCRATCH_DIR:-/tmp}/gitlet-bench.XXXXXX")
+trap 'rm -rf "$classes" "$scratch"' EXIT
+javac -d "$classes" "$root"/gitlet/*.java "$root"/benchmarks/gitlet/*.java
+name=$1
+shift
+(cd "$scratch" && java $JAVA_OPTS -cp "$classes" gitlet."$name" "$@")
@@ -2,11 +2,9 @@ package gitlet;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import java.util.HashMap;
 import java.util.Set;
@@ -18,7 +16,8 @@ import java.util.Set;
  *  and the value is the head CommitID of each branch. For example:
  *  "master" --> "askd2j3s..23jjks", "other" --> "sdwhk32...kew".
  *  To keep track of the working branch, we use a String variable called
- *  currBranch.
+ *  currBranch. It is stored as a RecordIO record; it stays Serializable
+ *  only so the Branch of an older repository can be read.
  *  @author Max Yao
  */
 public class Branch implements Serializable {
@@ -45,6 +44,24 @@ public class Branch implements Serializable {
         currBranch = "master";
     }
 
+    /** Reads a Branch from IN, positioned past the header of its record. */
+    private Branch(DataInputStream in) throws IOException {
+        currBranch = RecordIO.readString(in);
+        branchVSHead.putAll(RecordIO.readHashMap(in));
+    }
+
+    /** Returns the Branch read from IN, positioned past the header of its
+     *  record. */
+    static Branch decode(DataInputStream in) throws IOException {
+        return new Branch(in);
+    }
+
+    /** Writes the fields of this Branch's record to OUT. */
+    void encode(DataOutputStream out) throws IOException {
+        RecordIO.writeString(out, currBranch);
+        RecordIO.writeHashMap(out, branchVSHead);
+    }
+
 
     /** Replaces branchVSHead HashMap's BRANCH head with CMTID if such
      *  branch is already stored. If such branch isn't already stored,
@@ -75,10 +92,14 @@ public class Branch implements Serializable {
         File target = new File("./.gitlet/HEAD.ser");
         if (target.exists()) {
             try {
-                ObjectInputStream inp =
-                        new ObjectInputStream(new FileInputStream(target));
-                result = (Branch) inp.readObject();
-                inp.close();
+                if (RecordIO.isSerialized(target)) {
+                    result = (Branch) RecordIO.readSerialized(target);
+                } else {
+                    try (DataInputStream in = RecordIO.openRecord(target,
+                            RecordIO.BRANCH)) {
+                        result = new Branch(in);
+                    }
+                }
             } catch (IOException | ClassNotFoundException excp) {
                 System.out.println("Trouble loading branch: "
                         + excp.getMessage());
@@ -87,14 +108,17 @@ public class Branch implements Serializable {
         return result;
     }
 
-    /** Serializes this Branch then stores in /.gitlet/HEAD.ser. */
+    /** Encodes this Branch then stores in /.gitlet/HEAD.ser, through a
+     *  temporary file Journal moves over it. */
     void storeBranch() {
+        File target = new File("./.gitlet/HEAD.ser");
         try {
-            File target = new File("./.gitlet/HEAD.ser");
-            ObjectOutputStream out =
-                    new ObjectOutputStream(new FileOutputStream(target));
-            out.writeObject(this);
-            out.close();
+            File temp = Journal.createTemp();
+            try (DataOutputStream out = RecordIO.createRecord(temp,
+                    RecordIO.BRANCH)) {
+                encode(out);
+            }
+            Journal.replace(temp, target);
         } catch (IOException ioe) {
             System.out.println("Trouble storing branch: " + ioe.getMessage());
         }
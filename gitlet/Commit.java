@@ -4,13 +4,13 @@ import java.io.Serializable;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 
 import java.text.SimpleDateFormat;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,7 +22,9 @@ import static gitlet.Utils.*;
 
 /** A class representation of a single Commit. Whenever the user
  *  executes a commit, a new instance of this object will be created
- *  and this instance will never be destroyed.
+ *  and this instance will never be destroyed. Commits are stored as
+ *  RecordIO records; they stay Serializable only so commits of older
+ *  repositories can be read.
  *  @author Max Yao
  */
 public class Commit implements Serializable {
@@ -47,10 +49,35 @@ public class Commit implements Serializable {
 
 
     /** Key: the original file name, ending in .txt.
-     *  Value: the new file name from SHA-1 on it's contents, ending in .txt.
+     *  Value: the stored name of its contents, the SHA-1 String of them.
+     *  Only commits made before trees existed hold this map; it is null
+     *  for every other commit, whose files are recorded in treeSha.
      */
     private HashMap<String, String> oNameVSnName;
 
+    /** The hash of the Tree recording the files of this commit, or null
+     *  for commits made before trees existed. */
+    private String treeSha;
+
+    /** Every file of treeSha mapped to its stored name, read on first
+     *  use. Volatile, since cached Commits are shared between threads. */
+    private transient volatile HashMap<String, String> treeFiles;
+
+    /** Marks a record whose files are a Tree. */
+    private static final int TREE_FILES = 1;
+
+    /** Marks a record whose files are an oNameVSnName HashMap. */
+    private static final int MAP_FILES = 2;
+
+    /** Number of loaded Commits kept in memory. */
+    private static final int CACHED_COMMITS = 1024;
+
+    /** Loaded Commits keyed by commitID. A stored Commit never changes,
+     *  except when Migration upgrades it, which it does to the cached
+     *  Commit itself. */
+    static final LruCache<String, Commit> CACHE =
+            new LruCache<>(CACHED_COMMITS);
+
     /** Constructor for the init command; the initialization of getLet
      *  in a directory. */
     protected Commit() {
@@ -64,7 +91,7 @@ public class Commit implements Serializable {
         commitTime = dateFormat.format(epoch);
 
         commitID = sha1("Sentinel ", "Thu Jan 1 00:00:00 1970 +0000");
-        oNameVSnName = new HashMap<>();
+        treeSha = Tree.build(new HashMap<String, String>());
     }
 
     /** Constructor for commit commands after the initialization of the
@@ -80,7 +107,7 @@ public class Commit implements Serializable {
         commitTime = dateFormat.format(calendar.getTime());
         commitID = sha1(parentSha, commitTime);
 
-        oNameVSnName = new HashMap<>(loadCommit(prtSha).oNameVSnName);
+        treeSha = loadCommit(prtSha).treeSha;
     }
 
     /** A Commit constructor for merged Commit Object Only! Besides the usual
@@ -99,7 +126,25 @@ public class Commit implements Serializable {
         commitTime = dateFormat.format(calendar.getTime());
         commitID = sha1(parentSha, commitTime);
 
-        oNameVSnName = new HashMap<>(loadCommit(prtSha).oNameVSnName);
+        treeSha = loadCommit(prtSha).treeSha;
+    }
+
+    /** Reads a Commit from IN, positioned past the header of its
+     *  record. */
+    private Commit(DataInputStream in) throws IOException {
+        message = RecordIO.readString(in);
+        commitTime = RecordIO.readString(in);
+        commitID = RecordIO.readHash(in);
+        parentSha = RecordIO.readOptionalHash(in);
+        givenParentSha = RecordIO.readOptionalHash(in);
+        int files = in.readUnsignedByte();
+        if (files == TREE_FILES) {
+            treeSha = RecordIO.readHash(in);
+        } else if (files == MAP_FILES) {
+            oNameVSnName = RecordIO.readHashMap(in);
+        } else {
+            throw new IOException("corrupted commit");
+        }
     }
 
     /** Returns the commit message initially passed-in to this object. */
@@ -112,6 +157,12 @@ public class Commit implements Serializable {
         return parentSha;
     }
 
+    /** Returns the CommitID of the merged-in Commit, or null unless this
+     *  is a merge Commit. */
+    String getGivenParentSha() {
+        return givenParentSha;
+    }
+
     /** Returns the SHA-1 HashCode for this object. */
     String getCommitID() {
         return commitID;
@@ -122,71 +173,109 @@ public class Commit implements Serializable {
         return commitTime;
     }
 
+    /** Returns the hash of the Tree recording the files of this Commit, or
+     *  null if it was made before trees existed. */
+    String getTreeSha() {
+        return treeSha;
+    }
+
     /** Returns a Set of all Files(blobs) of this Commit Object. */
     Set<String> getCommittedFiles() {
-        return oNameVSnName.keySet();
+        return Collections.unmodifiableSet(committedFiles().keySet());
     }
 
     /** Returns the Actual stored name for FILE in oNameVSnName.
      *  This is primarily used to determine if a file had been modified since
      *  the last commit. */
     String getStoredCommittedFileName(String file) {
-        return oNameVSnName.get(file);
+        if (oNameVSnName != null) {
+            return oNameVSnName.get(file);
+        }
+        HashMap<String, String> files = treeFiles;
+        if (files != null) {
+            return files.get(file);
+        }
+        return Tree.lookup(treeSha, file);
     }
 
     /** Updates the HashMap oNameVSnName's FILENAME with a STOREDNAME,
      *  if this fileName already exists, it's value will be replaced,
      *  if it doesn't exist, then it will be added to the HashMap. */
     void updateoNameVSnName(String fileName, String storedName) {
-        if (oNameVSnName.containsKey(fileName)) {
-            oNameVSnName.replace(fileName, storedName);
-        } else {
+        if (oNameVSnName != null) {
             oNameVSnName.put(fileName, storedName);
+        } else {
+            updateTree(Collections.singletonMap(fileName, storedName));
+        }
+    }
+
+    /** Applies CHANGES to the files of this Commit, writing one new Tree.
+     *  CHANGES maps file names to their new stored names, or to null for
+     *  files that are no longer tracked. */
+    void updateTree(Map<String, String> changes) {
+        treeSha = Tree.update(treeSha, changes);
+        treeFiles = null;
+    }
+
+    /** Replaces the oNameVSnName HashMap of a Commit made before trees
+     *  existed with the equivalent Tree. */
+    void convertToTree() {
+        if (oNameVSnName != null) {
+            treeSha = Tree.build(oNameVSnName);
+            oNameVSnName = null;
+            treeFiles = null;
         }
     }
 
+    /** Returns every file of this Commit mapped to its stored name. */
+    private HashMap<String, String> committedFiles() {
+        if (oNameVSnName != null) {
+            return oNameVSnName;
+        }
+        HashMap<String, String> files = treeFiles;
+        if (files == null) {
+            files = new HashMap<>(Tree.entries(treeSha));
+            treeFiles = files;
+        }
+        return files;
+    }
+
     /** Processes the STAGE. This does most of the Commit Command work except
      *  for some minor detail. Mainly, it goes over new files to be committed
-     *  and save to /.gitlet/files/ and updates oNameVSnName HashMap, then it
-     *  removes those files that are marked to be untracked. Lastly, it deletes
-     *  everything in /.gitlet/stage/ and clears the addMap and removeMap. */
+     *  and save to /.gitlet/files/, then it removes those files that are
+     *  marked to be untracked, writing the changes as a single new Tree.
+     *  Lastly, it deletes everything in /.gitlet/stage/ and clears the addMap
+     *  and removeMap. */
     void processStage(Stage stage) {
+        HashMap<String, String> changes = new HashMap<>();
         for (String file : stage.getAddMapFiles()) {
             if (stage.getAddMapMark(file)) {
                 String storedName = stage.getOnStageStoredName(file);
-                updateoNameVSnName(file, storedName);
-                stage.transferFileToFilesDir(
-                        new File("./.gitlet/stage/" + storedName));
+                changes.put(file, storedName);
+                stage.transferFileToFilesDir(storedName);
             }
         }
         for (String file : stage.getRemoveMapFiles()) {
             if (stage.getRemoveMapMark(file)) {
-                oNameVSnName.remove(file);
+                changes.put(file, null);
             }
         }
+        updateTree(changes);
         stage.clearStageMaps();
     }
 
     /** Returns the common Commit Object between this Commit Obj
      *  and OTHERCOMMITOBJ. Essentially finding the splitPoint Obj
      *  between the two. Throws FileNotFoundException if no splitPoint
-     *  is found, which should never happen in the first place. */
+     *  is found, which should never happen in the first place. Both
+     *  parents of merge commits are followed; see MergeBase. */
     Commit splitPointCommitObj(Commit otherCommitObj) throws IOException {
-        HashSet<String> commitIDsAtAfterMe = new HashSet<>();
-        commitIDsAtAfterMe.add(getCommitID());
-        Commit parentCommit = this;
-        while (parentCommit.getParentSha() != null) {
-            parentCommit = loadCommit(parentCommit.getParentSha());
-            commitIDsAtAfterMe.add(parentCommit.getCommitID());
-        }
-        Commit otherCommitParent = otherCommitObj;
-        while (!commitIDsAtAfterMe.contains(otherCommitParent.getCommitID())) {
-            otherCommitParent = loadCommit(otherCommitParent.getParentSha());
-        }
-        if (otherCommitParent == null) {
+        String splitPoint = MergeBase.find(getCommitID(),
+                otherCommitObj.getCommitID());
+        if (splitPoint == null) {
             throw new FileNotFoundException("Cannot find the split point");
         }
-        return otherCommitParent;
+        return loadCommit(splitPoint);
     }
 
     /** Returns the common Commit ID between this Commit Obj
@@ -198,42 +287,65 @@ public class Commit implements Serializable {
     }
 
     /** Saving a copy of FILE to /.gitlet/files/ under the name specified by
-     *  storedFileName. Namely: [SHA-1 String]--[file title].[file type]. */
+     *  storedFileName, unless those contents are already stored. */
     void saveFileToFiles(String file) {
         try {
-            File destinationFile = new File(String.format("./.gitlet/files/%s",
-                    storedFileName(new File(file))));
-            writeContents(destinationFile, readContents(new File(file)));
+            ObjectStore.storeLoose(new File(file),
+                    new File(ObjectStore.FILES_DIR));
         } catch (IllegalArgumentException iae) {
             System.out.printf("An IAE occurred %s%n", iae.getMessage());
         }
     }
 
-    /** Restores the FILE from /.gitlet/files/ under the name specified by
+    /** Restores the FILE from the object store under the name specified by
      *  storedFileName. */
     void restoreFileFromFiles(String file) {
         try {
-            File destinationFile = new File(file);
-            String origin = String.format("./.gitlet/files/%s",
-                    getStoredCommittedFileName(file));
-            writeContents(destinationFile, readContents(new File(origin)));
+            ObjectStore.restore(getStoredCommittedFileName(file),
+                    new File(file));
         } catch (IllegalArgumentException iae) {
             System.out.printf("An IAE occurred %s%n", iae.getMessage());
         }
     }
 
+    /** Returns a HashMap from the stored name of every file version that
+     *  has been committed to the name of a file it was committed as. This
+     *  lets repack store versions of the same file as deltas of each
+     *  other. Tree nodes shared between commits are only read once. */
+    static HashMap<String, String> storedNameHints() {
+        HashMap<String, String> hints = new HashMap<>();
+        HashSet<String> visitedNodes = new HashSet<>();
+        for (File file : new File("./.gitlet/commits/").listFiles()) {
+            Commit commit = loadCommit(file.getName().substring(0,
+                    UID_LENGTH));
+            Tree.collectNames(commit.treeSha, visitedNodes, hints);
+        }
+        return hints;
+    }
+
     /** Returns the Commit with the same commitID CMTID from
-     *  /.gitlet/commits/commitID.ser will return null if not found. */
+     *  /.gitlet/commits/commitID.ser will return null if not found. The
+     *  Commit may come from CACHE, but only while its file exists, so
+     *  commits deleted by gc are never found. */
     static Commit loadCommit(String cmtID) {
         Commit result = null;
         File target = new File(String.format(
                 "./.gitlet/commits/%s.ser", cmtID));
         if (target.exists()) {
+            result = CACHE.get(cmtID);
+            if (result != null) {
+                return result;
+            }
             try {
-                ObjectInputStream inp =
-                        new ObjectInputStream(new FileInputStream(target));
-                result = (Commit) inp.readObject();
-                inp.close();
+                if (RecordIO.isSerialized(target)) {
+                    result = (Commit) RecordIO.readSerialized(target);
+                } else {
+                    try (DataInputStream in = RecordIO.openRecord(target,
+                            RecordIO.COMMIT)) {
+                        result = new Commit(in);
+                    }
+                }
+                CACHE.put(cmtID, result);
             } catch (IOException | ClassNotFoundException excp) {
                 System.out.println("Trouble loading commit: "
                         + excp.getMessage());
@@ -242,15 +354,40 @@ public class Commit implements Serializable {
         return result;
     }
 
-    /** Serializes this Commit then stores in /.gitlet/commits/commitID.ser. */
+    /** Returns the Commit read from IN, positioned past the header of its
+     *  record. */
+    static Commit decode(DataInputStream in) throws IOException {
+        return new Commit(in);
+    }
+
+    /** Writes the fields of this Commit's record to OUT. */
+    void encode(DataOutputStream out) throws IOException {
+        RecordIO.writeString(out, message);
+        RecordIO.writeString(out, commitTime);
+        RecordIO.writeHash(out, commitID);
+        RecordIO.writeOptionalHash(out, parentSha);
+        RecordIO.writeOptionalHash(out, givenParentSha);
+        if (oNameVSnName != null) {
+            out.writeByte(MAP_FILES);
+            RecordIO.writeHashMap(out, oNameVSnName);
+        } else {
+            out.writeByte(TREE_FILES);
+            RecordIO.writeHash(out, treeSha);
+        }
+    }
+
+    /** Encodes this Commit then stores in /.gitlet/commits/commitID.ser,
+     *  through a temporary file Journal moves there. */
     void storeCommit() {
+        File target = new File(String.format(
+                "./.gitlet/commits/%s.ser", commitID));
         try {
-            File target = new File(String.format(
-                    "./.gitlet/commits/%s.ser", commitID));
-            ObjectOutputStream out =
-                    new ObjectOutputStream(new FileOutputStream(target));
-            out.writeObject(this);
-            out.close();
+            File temp = Journal.createTemp();
+            try (DataOutputStream out = RecordIO.createRecord(temp,
+                    RecordIO.COMMIT)) {
+                encode(out);
+            }
+            Journal.replace(temp, target);
         } catch (IOException ioe) {
             System.out.println("Trouble storing commit: " + ioe.getMessage());
         }
@@ -258,34 +395,38 @@ public class Commit implements Serializable {
 
     @Override
     public String toString() {
+        return formatLogEntry(commitID, parentSha, givenParentSha,
+                commitTime, message);
+    }
+
+    /** Returns the log entry of the commit COMMITID, made at DATE with
+     *  MESSAGE. The Merge line is only printed if GIVENPARENTSHA, the
+     *  merged-in parent, isn't null; PARENTSHA is the first parent. */
+    static String formatLogEntry(String commitID, String parentSha,
+                                 String givenParentSha, String date,
+                                 String message) {
         Formatter result = new Formatter();
         result.format("===%n");
-        result.format("commit %s%n", getCommitID());
+        result.format("commit %s%n", commitID);
         if (givenParentSha != null) {
             String firstParent = parentSha.substring(0, 7);
             String givenParent = givenParentSha.substring(0, 7);
             result.format("Merge: %s %s%n", firstParent, givenParent);
         }
-        result.format("Date: %s%n", getCommitTime());
-        result.format("%s%n", getMessage());
+        result.format("Date: %s%n", date);
+        result.format("%s%n", message);
         return result.toString();
     }
 
     /** Checks if Commit C1 and Commit C2 contains same files of
-     *  the same contents. Returns true if they do, false otherwise. */
+     *  the same contents. Returns true if they do, false otherwise. Equal
+     *  file maps always make equal Trees, so only the tree hashes are
+     *  compared. */
     static boolean sameCommitContents(Commit c1, Commit c2) {
-        Set<String> cOneCommittedFiles = c1.getCommittedFiles();
-        Set<String> cTwoCommittedFiles = c2.getCommittedFiles();
-        if (cOneCommittedFiles.size() != cTwoCommittedFiles.size()) {
-            return false;
-        }
-        for (String file : cOneCommittedFiles) {
-            if (!c1.getStoredCommittedFileName(file).equals(
-                    c2.getStoredCommittedFileName(file))) {
-                return false;
-            }
+        if (c1.treeSha != null && c2.treeSha != null) {
+            return c1.treeSha.equals(c2.treeSha);
         }
-        return true;
+        return c1.committedFiles().equals(c2.committedFiles());
     }
 }
 
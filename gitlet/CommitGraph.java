@@ -0,0 +1,467 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** The commit graph: the parents, commit time, generation number and
+ *  message of every commit, kept in /.gitlet/commit-graph so history
+ *  walks, log and find never have to load Commits. The file is
+ *  memory-mapped and only ever appended to; a commit is added right after
+ *  it is stored, always after its parents, so a commit's position in the
+ *  file is larger than its parents'. The generation number of a commit is
+ *  one more than the largest of its parents', and 1 for the initial
+ *  commit, so an ancestor always has a smaller generation than its
+ *  descendants.
+ *
+ *  The file is a MAGIC and VERSION header followed by RECORD_BYTES long
+ *  records: the commit's 20 byte ID, the positions of its first and given
+ *  parents (NONE if absent), its commit time in seconds since the epoch,
+ *  its generation number, and the offset of its entry in
+ *  /.gitlet/commit-messages. That file is appended to alongside the graph;
+ *  an entry is the commit's formatted date and its message, each as a
+ *  RecordIO string. The number of records is taken from the graph file's
+ *  length, so an append cut short leaves the file readable. Commit IDs are
+ *  found through the CommitIndex, so nothing is read per commit before a
+ *  lookup. If either file is missing or unreadable, or a commit is asked
+ *  for that /.gitlet/commits/ holds but the graph doesn't, both are
+ *  rebuilt from /.gitlet/commits/, and the MessageIndex and CommitIndex
+ *  with them.
+ *  @author Max Yao
+ */
+class CommitGraph {
+
+    /** The file holding the graph. */
+    static final File GRAPH_FILE = new File("./.gitlet/commit-graph");
+
+    /** The file holding the date and message of every commit. */
+    static final File MESSAGES_FILE = new File("./.gitlet/commit-messages");
+
+    /** Position of a parent that doesn't exist. */
+    static final int NONE = -1;
+
+    /** Magic number of the graph file, "GLCG". */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Version of the graph file written by this version of gitlet. */
+    private static final int VERSION = 2;
+
+    /** Length of the header. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Length of a raw commit ID. */
+    private static final int HASH_BYTES = 20;
+
+    /** Length of a record. */
+    private static final int RECORD_BYTES = HASH_BYTES + 4 + 4 + 8 + 4 + 8;
+
+    /** The mapped graph file, or null if it has not been mapped yet. */
+    private static MappedByteBuffer graph;
+
+    /** The mapped messages file, mapped along with graph. */
+    private static MappedByteBuffer messages;
+
+    /** Number of records in graph. */
+    private static int count;
+
+    /** The FileStat of the graph file from just before it was mapped. */
+    private static FileStat graphStat;
+
+    /** Returns the position of the commit COMMITID, rebuilding the graph
+     *  if it doesn't hold it yet but the commit is stored. Throws
+     *  IllegalArgumentException if there is no such commit. */
+    static int position(String commitID) {
+        int pos = CommitIndex.position(commitID);
+        if (pos == NONE && new File(String.format(
+                "./.gitlet/commits/%s.ser", commitID)).isFile()) {
+            rebuild();
+            pos = CommitIndex.position(commitID);
+        }
+        if (pos == NONE) {
+            throw new IllegalArgumentException("No commit with id "
+                    + commitID);
+        }
+        return pos;
+    }
+
+    /** Returns true if the graph holds the commit COMMITID. */
+    static boolean contains(String commitID) {
+        return CommitIndex.position(commitID) != NONE;
+    }
+
+    /** Returns the number of commits in the graph. */
+    static int size() {
+        load();
+        return count;
+    }
+
+    /** Returns the ID of the commit at POS. */
+    static String commitID(int pos) {
+        return bytesToHex(rawID(pos));
+    }
+
+    /** Returns the 20 byte ID of the commit at POS. */
+    static byte[] rawID(int pos) {
+        byte[] id = new byte[HASH_BYTES];
+        int offset = offset(pos);
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            id[i] = graph.get(offset + i);
+        }
+        return id;
+    }
+
+    /** Returns true if the commit at POS has the 20 byte ID ID. */
+    static boolean hasID(int pos, byte[] id) {
+        int offset = offset(pos);
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            if (graph.get(offset + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or
+     *  NONE for the initial commit. */
+    static int parent(int pos) {
+        int offset = offset(pos);
+        return graph.getInt(offset + HASH_BYTES);
+    }
+
+    /** Returns the position of the given parent of the commit at POS, or
+     *  NONE unless it is a merge commit. */
+    static int givenParent(int pos) {
+        int offset = offset(pos);
+        return graph.getInt(offset + HASH_BYTES + 4);
+    }
+
+    /** Returns the commit time of the commit at POS in seconds since the
+     *  epoch. */
+    static long commitTime(int pos) {
+        int offset = offset(pos);
+        return graph.getLong(offset + HASH_BYTES + 8);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    static int generation(int pos) {
+        int offset = offset(pos);
+        return graph.getInt(offset + HASH_BYTES + 16);
+    }
+
+    /** Returns the message of the commit at POS. */
+    static String message(int pos) {
+        ByteBuffer entry = messageEntry(pos);
+        int dateLength = readVarInt(entry);
+        entry.position(entry.position() + dateLength);
+        return readString(entry);
+    }
+
+    /** Returns the log entry of the commit at POS, as Commit.toString
+     *  formats it. */
+    static String logEntry(int pos) {
+        ByteBuffer entry = messageEntry(pos);
+        String date = readString(entry);
+        int givenParent = givenParent(pos);
+        return Commit.formatLogEntry(commitID(pos),
+                givenParent == NONE ? null : commitID(parent(pos)),
+                givenParent == NONE ? null : commitID(givenParent), date,
+                readString(entry));
+    }
+
+    /** Appends the stored COMMIT to the graph unless it is already there.
+     *  Its parents must already be stored. */
+    static void add(Commit commit) {
+        if (!GRAPH_FILE.isFile() || !MESSAGES_FILE.isFile()
+                || (GRAPH_FILE.length() - HEADER_BYTES) % RECORD_BYTES != 0) {
+            rebuild();
+            return;
+        }
+        if (contains(commit.getCommitID())) {
+            return;
+        }
+        int parent = parentPosition(commit.getParentSha());
+        int givenParent = parentPosition(commit.getGivenParentSha());
+        if (contains(commit.getCommitID())) {
+            return;
+        }
+        int generation = 1 + Math.max(
+                parent == NONE ? 0 : generation(parent),
+                givenParent == NONE ? 0 : generation(givenParent));
+        int pos = size();
+        try (FileChannel channel = FileChannel.open(MESSAGES_FILE.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long messageOffset = channel.size();
+            writeFully(channel, ByteBuffer.wrap(encodeMessage(commit)));
+            ByteBuffer record = encode(commit, parent, givenParent,
+                    generation, messageOffset);
+            try (FileChannel graphChannel = FileChannel.open(
+                    GRAPH_FILE.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                writeFully(graphChannel, record);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+        MessageIndex.add(pos, commit.getMessage());
+    }
+
+    /** Rewrites the graph from every commit in /.gitlet/commits/. */
+    static void rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (File file : new File("./.gitlet/commits/").listFiles()) {
+            String id = file.getName().substring(0, UID_LENGTH);
+            commits.put(id, Commit.loadCommit(id));
+        }
+        HashMap<String, Integer> order = new HashMap<>();
+        List<ByteBuffer> records = new ArrayList<>();
+        List<Integer> generations = new ArrayList<>();
+        List<byte[]> entries = new ArrayList<>();
+        long messageOffset = 0;
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        for (Commit start : commits.values()) {
+            pending.push(start);
+            while (!pending.isEmpty()) {
+                Commit commit = pending.peek();
+                if (order.containsKey(commit.getCommitID())) {
+                    pending.pop();
+                    continue;
+                }
+                Commit missing = missingParent(commit, commits, order);
+                if (missing != null) {
+                    pending.push(missing);
+                    continue;
+                }
+                pending.pop();
+                int parent = orderOf(commit.getParentSha(), order);
+                int givenParent = orderOf(commit.getGivenParentSha(), order);
+                int generation = 1 + Math.max(
+                        parent == NONE ? 0 : generations.get(parent),
+                        givenParent == NONE ? 0
+                                : generations.get(givenParent));
+                byte[] entry = encodeMessage(commit);
+                ByteBuffer record = encode(commit, parent, givenParent,
+                        generation, messageOffset);
+                messageOffset += entry.length;
+                order.put(commit.getCommitID(), records.size());
+                records.add(record);
+                generations.add(generation);
+                entries.add(entry);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        records.add(0, header);
+        graph = null;
+        MessageIndex.clear();
+        CommitIndex.clear();
+        List<ByteBuffer> messageBuffers = new ArrayList<>();
+        for (byte[] entry : entries) {
+            messageBuffers.add(ByteBuffer.wrap(entry));
+        }
+        replace(MESSAGES_FILE, messageBuffers);
+        replace(GRAPH_FILE, records);
+    }
+
+    /** Replaces FILE with the concatenation of BUFFERS, through a temporary
+     *  file so FILE is never seen half written. */
+    private static void replace(File file, List<ByteBuffer> buffers) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ByteBuffer buffer : buffers) {
+                writeFully(channel, buffer);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the position of the parent PARENTSHA, or NONE if it is
+     *  null. */
+    private static int parentPosition(String parentSha) {
+        return parentSha == null ? NONE : position(parentSha);
+    }
+
+    /** Returns a parent of COMMIT from COMMITS that has no place in ORDER
+     *  yet, or null if all of them have one. */
+    private static Commit missingParent(Commit commit,
+                                        HashMap<String, Commit> commits,
+                                        HashMap<String, Integer> order) {
+        for (String parent : new String[] {commit.getParentSha(),
+                commit.getGivenParentSha()}) {
+            if (parent != null && !order.containsKey(parent)) {
+                Commit missing = commits.get(parent);
+                if (missing == null) {
+                    throw new IllegalArgumentException("Missing commit "
+                            + parent);
+                }
+                return missing;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the place of COMMITID in ORDER, or NONE if it is null. */
+    private static int orderOf(String commitID,
+                               HashMap<String, Integer> order) {
+        return commitID == null ? NONE : order.get(commitID);
+    }
+
+    /** Returns the record of COMMIT, whose parents are at PARENT and
+     *  GIVENPARENT, whose generation number is GENERATION and whose message
+     *  entry is at MESSAGEOFFSET, ready to be written. */
+    private static ByteBuffer encode(Commit commit, int parent,
+                                     int givenParent, int generation,
+                                     long messageOffset) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.put(hexToBytes(commit.getCommitID()));
+        record.putInt(parent);
+        record.putInt(givenParent);
+        record.putLong(parseCommitTime(commit.getCommitTime()));
+        record.putInt(generation);
+        record.putLong(messageOffset);
+        record.flip();
+        return record;
+    }
+
+    /** Returns the entry of COMMIT in the messages file. */
+    private static byte[] encodeMessage(Commit commit) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            RecordIO.writeString(out, commit.getCommitTime());
+            RecordIO.writeString(out, commit.getMessage());
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a view of the mapped messages file positioned at the entry
+     *  of the commit at POS. */
+    private static ByteBuffer messageEntry(int pos) {
+        int offset = offset(pos);
+        long messageOffset = graph.getLong(offset + HASH_BYTES + 20);
+        ByteBuffer entry = messages.duplicate();
+        entry.position((int) messageOffset);
+        return entry;
+    }
+
+    /** Returns a varint read from BUFFER. */
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupted commit messages");
+    }
+
+    /** Returns a RecordIO string read from BUFFER. */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns TIME, formatted as Commits format their commit time, in
+     *  seconds since the epoch. */
+    static long parseCommitTime(String time) {
+        try {
+            return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z")
+                    .parse(time).getTime() / 1000;
+        } catch (ParseException excp) {
+            throw new IllegalArgumentException("Bad commit time " + time);
+        }
+    }
+
+    /** Returns the offset of the record at POS. */
+    private static int offset(int pos) {
+        load();
+        if (pos < 0 || pos >= count) {
+            throw new IllegalArgumentException("No commit at " + pos);
+        }
+        return HEADER_BYTES + pos * RECORD_BYTES;
+    }
+
+    /** Forgets the mapped graph if the graph file changed since it was
+     *  mapped, so a process running many commands sees the commits made
+     *  by other processes. Commits are appended to the messages file
+     *  before the graph file, so the graph file tells for both. */
+    static void forgetIfChanged() {
+        if (graph != null && !FileStat.unchanged(GRAPH_FILE, graphStat)) {
+            graph = null;
+        }
+    }
+
+    /** Maps the graph file if necessary, rebuilding it first if it is
+     *  missing or unreadable. */
+    private static void load() {
+        if (graph != null) {
+            return;
+        }
+        if (!GRAPH_FILE.isFile() || !MESSAGES_FILE.isFile()) {
+            rebuild();
+        }
+        graphStat = FileStat.of(GRAPH_FILE);
+        try (FileChannel channel = FileChannel.open(GRAPH_FILE.toPath(),
+                StandardOpenOption.READ);
+             FileChannel messageChannel = FileChannel.open(
+                     MESSAGES_FILE.toPath(), StandardOpenOption.READ)) {
+            messages = messageChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    messageChannel.size());
+            graph = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (graph.limit() < HEADER_BYTES || graph.getInt(0) != MAGIC
+                || graph.getInt(4) != VERSION) {
+            graph = null;
+            rebuild();
+            load();
+            return;
+        }
+        count = (graph.limit() - HEADER_BYTES) / RECORD_BYTES;
+    }
+
+    /** Writes all of BUFFER to CHANNEL. */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
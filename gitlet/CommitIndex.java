@@ -0,0 +1,299 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A sorted index of commit IDs, so a commit ID, whole or abbreviated, is
+ *  resolved with a binary search instead of a scan of /.gitlet/commits/
+ *  or of the whole CommitGraph.
+ *
+ *  The index is /.gitlet/commit-index: a header of MAGIC, VERSION and the
+ *  number of CommitGraph positions covered, a 256 entry fanout table where
+ *  entry i counts the IDs whose first byte is at most i, the 20 byte ID of
+ *  every covered commit, in increasing order, and then the CommitGraph
+ *  position of each of those commits, in the same order. Commits added
+ *  to the graph after the index was written are checked one by one, and
+ *  the index is rewritten once there are more than MAX_TAIL of them. If
+ *  the graph is rebuilt the index is deleted along with it.
+ *  @author Max Yao
+ */
+class CommitIndex {
+
+    /** The file holding the index. */
+    static final File INDEX_FILE = new File("./.gitlet/commit-index");
+
+    /** Magic number of the index file, "GLCI". */
+    private static final int MAGIC = 0x474c4349;
+
+    /** Version of the index file written by this version of gitlet. */
+    private static final int VERSION = 2;
+
+    /** Offset of the number of commits covered in the header. */
+    private static final int COVERED_OFFSET = 8;
+
+    /** Length of the header. */
+    private static final int HEADER_BYTES = 12;
+
+    /** Number of entries in the fanout table. */
+    private static final int FANOUT_ENTRIES = 256;
+
+    /** Length of a raw commit ID. */
+    private static final int HASH_BYTES = 20;
+
+    /** Position of the first ID. */
+    private static final int IDS_START =
+            HEADER_BYTES + 4 * FANOUT_ENTRIES;
+
+    /** Number of commits past the index checked one by one before it is
+     *  rewritten. */
+    private static final int MAX_TAIL = 256;
+
+    /** Returns the full IDs of every commit whose ID starts with PREFIX,
+     *  in increasing order. PREFIX is matched ignoring case; a PREFIX that
+     *  isn't hexadecimal matches nothing. If nothing matches but
+     *  /.gitlet/commits/ holds commits the graph is missing, the graph is
+     *  rebuilt and the lookup repeated. */
+    static List<String> resolve(String prefix) {
+        List<String> result = lookup(prefix);
+        if (result.isEmpty() && new File("./.gitlet/commits/").list().length
+                != CommitGraph.size()) {
+            CommitGraph.rebuild();
+            result = lookup(prefix);
+        }
+        return result;
+    }
+
+    /** Returns the CommitGraph position of the commit COMMITID, or
+     *  CommitGraph.NONE if the graph doesn't hold it. */
+    static int position(String commitID) {
+        if (commitID.length() != UID_LENGTH || !isHex(commitID)) {
+            return CommitGraph.NONE;
+        }
+        byte[] id = hexToBytes(commitID);
+        ByteBuffer index = load();
+        int covered = index.getInt(COVERED_OFFSET);
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_BYTES + 4 * (first - 1));
+        int hi = index.getInt(HEADER_BYTES + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareID(index, mid, id);
+            if (cmp == 0) {
+                return index.getInt(IDS_START + covered * HASH_BYTES
+                        + 4 * mid);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int commits = CommitGraph.size();
+        for (int pos = covered; pos < commits; pos += 1) {
+            if (CommitGraph.hasID(pos, id)) {
+                return pos;
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the full IDs of every commit of the graph whose ID starts
+     *  with PREFIX, in increasing order. */
+    private static List<String> lookup(String prefix) {
+        List<String> result = new ArrayList<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > UID_LENGTH || !isHex(prefix)) {
+            return result;
+        }
+        ByteBuffer index = load();
+        int covered = index.getInt(COVERED_OFFSET);
+        int count = index.getInt(HEADER_BYTES + 4 * (FANOUT_ENTRIES - 1));
+        byte[] low = hexToBytes(pad(prefix));
+        int first = low[0] & 0xff;
+        int lo = 0;
+        int hi = count;
+        if (prefix.length() >= 2) {
+            lo = first == 0 ? 0
+                    : index.getInt(HEADER_BYTES + 4 * (first - 1));
+            hi = index.getInt(HEADER_BYTES + 4 * first);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareID(index, mid, low) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count; i += 1) {
+            String id = idAt(index, i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+        int commits = CommitGraph.size();
+        for (int pos = covered; pos < commits; pos += 1) {
+            String id = CommitGraph.commitID(pos);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Deletes the index, which is rewritten when next needed. */
+    static void clear() {
+        INDEX_FILE.delete();
+    }
+
+    /** Rewrites the index from every commit in the CommitGraph. */
+    static void rebuild() {
+        int commits = CommitGraph.size();
+        byte[][] ids = new byte[commits][];
+        Integer[] order = new Integer[commits];
+        for (int pos = 0; pos < commits; pos += 1) {
+            ids[pos] = CommitGraph.rawID(pos);
+            order[pos] = pos;
+        }
+        Arrays.sort(order, (a, b) -> compareIDs(ids[a], ids[b]));
+        ByteBuffer out = ByteBuffer.allocate(IDS_START
+                + commits * (HASH_BYTES + 4));
+        out.putInt(MAGIC).putInt(VERSION).putInt(commits);
+        int[] fanout = new int[FANOUT_ENTRIES];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        int running = 0;
+        for (int bucket : fanout) {
+            running += bucket;
+            out.putInt(running);
+        }
+        for (int pos : order) {
+            out.put(ids[pos]);
+        }
+        for (int pos : order) {
+            out.putInt(pos);
+        }
+        out.flip();
+        File temp = new File(INDEX_FILE.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the mapped index, rewriting it first if it is missing,
+     *  unreadable, covers commits the graph doesn't hold, or lags more than
+     *  MAX_TAIL commits behind it. */
+    private static ByteBuffer load() {
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            if (INDEX_FILE.isFile()) {
+                try (FileChannel channel = FileChannel.open(
+                        INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer index = channel.map(
+                            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (isCurrent(index)) {
+                        return index;
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            rebuild();
+        }
+        throw new IllegalArgumentException("Cannot build commit index");
+    }
+
+    /** Returns true if INDEX is a whole index of this version covering
+     *  no more than the commits of the graph, and at most MAX_TAIL
+     *  fewer. */
+    private static boolean isCurrent(ByteBuffer index) {
+        if (index.limit() < IDS_START || index.getInt(0) != MAGIC
+                || index.getInt(4) != VERSION) {
+            return false;
+        }
+        int covered = index.getInt(COVERED_OFFSET);
+        int commits = CommitGraph.size();
+        return covered <= commits && commits - covered <= MAX_TAIL
+                && index.getInt(HEADER_BYTES + 4 * (FANOUT_ENTRIES - 1))
+                == covered
+                && index.limit() == IDS_START + covered * (HASH_BYTES + 4);
+    }
+
+    /** Returns the Ith ID of INDEX. */
+    private static String idAt(ByteBuffer index, int i) {
+        byte[] id = new byte[HASH_BYTES];
+        int pos = IDS_START + i * HASH_BYTES;
+        for (int b = 0; b < HASH_BYTES; b += 1) {
+            id[b] = index.get(pos + b);
+        }
+        return bytesToHex(id);
+    }
+
+    /** Compares the Ith ID of INDEX with ID, as unsigned bytes. */
+    private static int compareID(ByteBuffer index, int i, byte[] id) {
+        int pos = IDS_START + i * HASH_BYTES;
+        for (int b = 0; b < HASH_BYTES; b += 1) {
+            int cmp = (index.get(pos + b) & 0xff) - (id[b] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Compares the raw IDs A and B as unsigned bytes. */
+    private static int compareIDs(byte[] a, byte[] b) {
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the smallest full ID starting with PREFIX. */
+    private static String pad(String prefix) {
+        StringBuilder id = new StringBuilder(prefix);
+        while (id.length() < UID_LENGTH) {
+            id.append('0');
+        }
+        return id.toString();
+    }
+
+    /** Returns true if every character of TEXT is a hexadecimal digit. */
+    private static boolean isHex(String text) {
+        for (int i = 0; i < text.length(); i += 1) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
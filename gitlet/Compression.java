@@ -0,0 +1,223 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Codecs used to compress stored objects. The codec for new objects is
+ *  picked per repository by the core.compression setting:
+ *  "none" stores objects as they are, "deflate" (the default) uses zlib's
+ *  default level and "deflate-fast" its fastest level, trading some space
+ *  for speed. Objects are always compressed and decompressed as streams,
+ *  so no whole file needs to be held in memory.
+ *
+ *  Every loose object starts with the four MAGIC bytes and a codec byte,
+ *  NONE for objects stored as they are, so how an object is read never
+ *  depends on what the file it holds happens to start with. Objects
+ *  stored without a header, before compression existed or by earlier
+ *  versions of "none", are given one by Migration, which tells them apart
+ *  by their hash; a loose object without a header is an error.
+ *  @author Max Yao
+ */
+class Compression {
+
+    /** Codec byte of uncompressed data. */
+    static final int NONE = 0;
+
+    /** Codec byte of zlib-compressed data. */
+    static final int DEFLATE = 1;
+
+    /** Size of the buffers used when streaming. */
+    static final int BUFFER_SIZE = 64 << 10;
+
+    /** Bytes starting a compressed loose object. */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'Z'};
+
+    /** Length of the header of a loose object. */
+    static final int HEADER_BYTES = MAGIC.length + 1;
+
+    /** Returns true if NAME is a codec accepted by core.compression. */
+    static boolean isCodecName(String name) {
+        return name.equals("none") || name.equals("deflate")
+                || name.equals("deflate-fast");
+    }
+
+    /** Returns the name of the codec new objects are compressed with. */
+    static String configuredCodec() {
+        return Config.get(Config.COMPRESSION, "deflate");
+    }
+
+    /** Returns the codec byte of the configured codec. */
+    static int configuredCodecId() {
+        return configuredCodec().equals("none") ? NONE : DEFLATE;
+    }
+
+    /** Writes SOURCE to DEST as a loose object, compressed with the
+     *  configured codec. */
+    static void writeLoose(File source, File dest) throws IOException {
+        try (InputStream in = new FileInputStream(source)) {
+            writeLoose(in, dest);
+        }
+    }
+
+    /** Writes what remains of IN to DEST as a loose object, compressed with
+     *  the configured codec. */
+    static void writeLoose(InputStream in, File dest) throws IOException {
+        writeLoose(in, dest, configuredCodecId());
+    }
+
+    /** Writes what remains of IN to DEST as a loose object, compressed with
+     *  CODEC. */
+    static void writeLoose(InputStream in, File dest, int codec)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(dest), BUFFER_SIZE)) {
+            out.write(MAGIC);
+            out.write(codec);
+            if (codec == NONE) {
+                copy(in, out);
+            } else {
+                Deflater deflater = new Deflater(level());
+                DeflaterOutputStream compressed =
+                        new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+                copy(in, compressed);
+                compressed.finish();
+                deflater.end();
+            }
+        }
+    }
+
+    /** Returns a stream of the decoded contents of the loose object
+     *  FILE. */
+    static InputStream openLoose(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE);
+        try {
+            return decode(in, readHeader(in, file));
+        } catch (IOException excp) {
+            in.close();
+            throw excp;
+        }
+    }
+
+    /** Returns the codec byte of the header of the loose object FILE,
+     *  which is followed by its encoded contents. */
+    static int looseCodec(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readHeader(in, file);
+        }
+    }
+
+    /** Reads the header of the loose object FILE from IN and returns its
+     *  codec byte. Throws IOException if FILE has no header. */
+    private static int readHeader(InputStream in, File file)
+            throws IOException {
+        byte[] header = new byte[HEADER_BYTES];
+        int read = 0;
+        int n;
+        while (read < HEADER_BYTES
+                && (n = in.read(header, read, HEADER_BYTES - read)) > 0) {
+            read += n;
+        }
+        if (read < HEADER_BYTES || header[0] != MAGIC[0]
+                || header[1] != MAGIC[1] || header[2] != MAGIC[2]
+                || header[3] != MAGIC[3]) {
+            throw new IOException("Object " + file.getName()
+                    + " has no header");
+        }
+        return header[MAGIC.length];
+    }
+
+    /** Returns a stream decoding IN, which was compressed with CODEC. */
+    static InputStream decode(InputStream in, int codec) {
+        switch (codec) {
+        case NONE:
+            return in;
+        case DEFLATE:
+            return new InflaterInputStream(in);
+        default:
+            throw new IllegalArgumentException("Unknown compression codec "
+                    + codec);
+        }
+    }
+
+    /** Returns DATA compressed with the configured codec, or null if the
+     *  configured codec is "none" or compressing wouldn't save space. */
+    static byte[] compress(byte[] data) {
+        if (configuredCodecId() == NONE) {
+            return null;
+        }
+        Deflater deflater = new Deflater(level());
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished() && out.size() < data.length) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        boolean finished = deflater.finished();
+        deflater.end();
+        if (!finished || out.size() >= data.length) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /** Copies everything left in IN to OUT. Returns the number of bytes
+     *  copied. */
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /** Returns everything left in IN and closes it. */
+    static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream source = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(source, out);
+            return out.toByteArray();
+        }
+    }
+
+    /** Returns the length of the contents of the loose object FILE. The
+     *  contents of a compressed object are streamed through to count
+     *  them, so nothing but one buffer is held in memory. */
+    static long looseSize(File file) throws IOException {
+        if (looseCodec(file) == NONE) {
+            return file.length() - HEADER_BYTES;
+        }
+        try (InputStream in = openLoose(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                size += n;
+            }
+            return size;
+        }
+    }
+
+    /** Returns the zlib level of the configured codec. */
+    private static int level() {
+        if (configuredCodec().equals("deflate-fast")) {
+            return Deflater.BEST_SPEED;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+}
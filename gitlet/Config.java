@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Properties;
+
+/** Per-repository settings, kept as KEY=VALUE lines in /.gitlet/config.
+ *  Settings that were never set take the default given by the caller, so
+ *  repositories created before a setting existed need no upgrade. Every
+ *  known setting and the values it accepts are listed in validate.
+ *  @author Max Yao
+ */
+class Config {
+
+    /** The file holding the settings. */
+    static final File CONFIG_FILE = new File("./.gitlet/config");
+
+    /** Setting holding the layout version of the repository, which only
+     *  Migration changes. */
+    static final String FORMAT = "core.format";
+
+    /** Setting that picks the codec new objects are compressed with. */
+    static final String COMPRESSION = "core.compression";
+
+    /** Setting holding how many threads work split across cores uses, or 0
+     *  for one per processor. */
+    static final String PARALLELISM = "core.parallelism";
+
+    /** Setting holding how many files checkout, reset and merge restore
+     *  at once, or 0 for IO_THREADS_PER_PROCESSOR per processor. */
+    static final String IO_THREADS = "core.ioThreads";
+
+    /** Files restored at once for each processor unless IO_THREADS is
+     *  set. Restoring mostly waits on reads and writes, so it pays to have
+     *  more going than there are processors. */
+    static final int IO_THREADS_PER_PROCESSOR = 4;
+
+    /** Setting that picks when records and objects are synced to disk:
+     *  "none", "batch" or "always"; see Journal. */
+    static final String DURABILITY = "core.durability";
+
+    /** Setting holding how many seconds gc keeps unreachable data after
+     *  first finding it. */
+    static final String GC_GRACE = "gc.grace";
+
+    /** Setting holding the number of loose objects past which commits run
+     *  gc, or 0 to never run it automatically. */
+    static final String GC_AUTO = "gc.auto";
+
+    /** The settings read from CONFIG_FILE, or null before the first
+     *  access. */
+    private static Properties settings;
+
+    /** The FileStat of CONFIG_FILE from just before settings were read. */
+    private static FileStat settingsStat;
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it was never set. */
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /** Returns the value of KEY as an int, or DEFAULTVALUE if it was never
+     *  set. */
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /** Returns the number of threads work split across cores should use:
+     *  the core.parallelism setting, or one per processor if it is 0 or
+     *  was never set. */
+    static int parallelism() {
+        int threads = getInt(PARALLELISM, 0);
+        return threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Returns the number of files checkout, reset and merge should
+     *  restore at once: the core.ioThreads setting, or
+     *  IO_THREADS_PER_PROCESSOR per processor if it is 0 or was never
+     *  set. */
+    static int ioThreads() {
+        int threads = getInt(IO_THREADS, 0);
+        return threads > 0 ? threads : IO_THREADS_PER_PROCESSOR
+                * Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Sets KEY to VALUE and saves the settings. Values set by the user
+     *  should be checked with validate first. */
+    static void set(String key, String value) {
+        load().setProperty(key, value);
+        try {
+            File temp = Journal.createTemp();
+            try (OutputStream out = new FileOutputStream(temp)) {
+                settings.store(out, "gitlet repository settings");
+            }
+            Journal.replace(temp, CONFIG_FILE);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Trouble storing config: "
+                    + ioe.getMessage());
+        }
+    }
+
+    /** Returns true if KEY is a setting the user may read and change. */
+    static boolean isKnown(String key) {
+        switch (key) {
+        case COMPRESSION: case PARALLELISM: case IO_THREADS:
+        case DURABILITY: case GC_GRACE: case GC_AUTO:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Throws IllegalArgumentException, with a message for the user,
+     *  unless KEY is a setting the user may change and VALUE is allowed for
+     *  it. */
+    static void validate(String key, String value) {
+        switch (key) {
+        case COMPRESSION:
+            if (!Compression.isCodecName(value)) {
+                throw new IllegalArgumentException(
+                        "Compression must be none, deflate or deflate-fast.");
+            }
+            break;
+        case DURABILITY:
+            if (!Journal.isMode(value)) {
+                throw new IllegalArgumentException(
+                        "Durability must be none, batch or always.");
+            }
+            break;
+        case PARALLELISM: case IO_THREADS: case GC_GRACE: case GC_AUTO:
+            if (!value.matches("[0-9]{1,9}")) {
+                throw new IllegalArgumentException(
+                        "Value must be a non-negative number.");
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("No such setting exists.");
+        }
+    }
+
+    /** Forgets the settings if CONFIG_FILE changed since they were read,
+     *  so a process running many commands sees changes made by others. */
+    static synchronized void forgetIfChanged() {
+        if (settings != null
+                && !FileStat.unchanged(CONFIG_FILE, settingsStat)) {
+            settings = null;
+        }
+    }
+
+    /** Returns the settings, reading CONFIG_FILE on first use. Threads
+     *  storing files in parallel may get here at once. */
+    private static synchronized Properties load() {
+        if (settings == null) {
+            settings = new Properties();
+            settingsStat = FileStat.of(CONFIG_FILE);
+            if (CONFIG_FILE.isFile()) {
+                try (InputStream in = new FileInputStream(CONFIG_FILE)) {
+                    settings.load(in);
+                } catch (IOException ioe) {
+                    System.out.println("Trouble loading config: "
+                            + ioe.getMessage());
+                }
+            }
+        }
+        return settings;
+    }
+}
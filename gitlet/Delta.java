@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+import java.nio.ByteBuffer;
+
+/** Binary deltas between two versions of a file. A delta describes a
+ *  target as a list of instructions against a base: copy a run of bytes
+ *  out of the base, or insert literal bytes carried in the delta itself.
+ *
+ *  Format: varint base length, varint target length, then instructions.
+ *  A copy is the byte COPY followed by a varint offset and a varint length;
+ *  an insert is the byte INSERT followed by a varint length and that many
+ *  bytes. Matches are found by indexing the base in BLOCK-byte blocks and
+ *  sliding a rolling hash over the target, the same idea rsync and git use.
+ *  @author Max Yao
+ */
+class Delta {
+
+    /** Size of the blocks the base is indexed by. */
+    private static final int BLOCK = 16;
+
+    /** Instruction copying a run of bytes from the base. */
+    private static final int COPY = 1;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 0;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    /** PRIME raised to BLOCK - 1, used to drop a byte from the hash. */
+    private static final int OUT_FACTOR = pow(PRIME, BLOCK - 1);
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int blocks = base.length / BLOCK;
+        int insertStart = 0;
+        if (blocks > 0 && target.length >= BLOCK) {
+            int bits = 32 - Integer.numberOfLeadingZeros(blocks * 2 - 1);
+            int[] table = new int[1 << bits];
+            for (int b = blocks - 1; b >= 0; b -= 1) {
+                table[slot(hash(base, b * BLOCK), bits)] = b * BLOCK + 1;
+            }
+            int i = 0;
+            int h = hash(target, 0);
+            while (i + BLOCK <= target.length) {
+                int candidate = table[slot(h, bits)] - 1;
+                if (candidate >= 0 && sameBlock(base, candidate, target, i)) {
+                    int start = i;
+                    int baseStart = candidate;
+                    while (start > insertStart && baseStart > 0
+                            && target[start - 1] == base[baseStart - 1]) {
+                        start -= 1;
+                        baseStart -= 1;
+                    }
+                    int end = i + BLOCK;
+                    int baseEnd = candidate + BLOCK;
+                    while (end < target.length && baseEnd < base.length
+                            && target[end] == base[baseEnd]) {
+                        end += 1;
+                        baseEnd += 1;
+                    }
+                    writeInsert(out, target, insertStart, start);
+                    out.write(COPY);
+                    writeVarint(out, baseStart);
+                    writeVarint(out, end - start);
+                    i = end;
+                    insertStart = end;
+                    if (i + BLOCK <= target.length) {
+                        h = hash(target, i);
+                    }
+                } else {
+                    if (i + BLOCK < target.length) {
+                        h = (h - target[i] * OUT_FACTOR) * PRIME
+                                + target[i + BLOCK];
+                    }
+                    i += 1;
+                }
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target produced by applying DELTA, read from its
+     *  current position to its limit, to BASE. Throws
+     *  IllegalArgumentException if DELTA wasn't made against BASE. */
+    static byte[] apply(byte[] base, ByteBuffer delta) {
+        if (readVarint(delta) != base.length) {
+            throw new IllegalArgumentException("Delta doesn't match its base");
+        }
+        byte[] result = new byte[readVarint(delta)];
+        int pos = 0;
+        while (delta.hasRemaining()) {
+            int instruction = delta.get();
+            if (instruction == COPY) {
+                int offset = readVarint(delta);
+                int length = readVarint(delta);
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else {
+                int length = readVarint(delta);
+                delta.get(result, pos, length);
+                pos += length;
+            }
+        }
+        if (pos != result.length) {
+            throw new IllegalArgumentException("Corrupted delta");
+        }
+        return result;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at POS. */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + data[pos + k];
+        }
+        return h;
+    }
+
+    /** Returns the table slot of hash H in a table of 2^BITS slots. */
+    private static int slot(int h, int bits) {
+        return (h * 0x9e3779b9) >>> (32 - bits);
+    }
+
+    /** Returns true if the BLOCK bytes of A at APOS equal those of B at
+     *  BPOS. */
+    private static boolean sameBlock(byte[] a, int aPos, byte[] b, int bPos) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (a[aPos + k] != b[bPos + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes an insert of DATA[START, END) to OUT, if it isn't empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int start, int end) {
+        if (end > start) {
+            out.write(INSERT);
+            writeVarint(out, end - start);
+            out.write(data, start, end - start);
+        }
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits per byte. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /** Reads a varint written by writeVarint from IN. */
+    private static int readVarint(ByteBuffer in) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /** Returns BASE raised to EXP, with int overflow. */
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; i += 1) {
+            result *= base;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The stat data of a working file when it was last hashed, together with
+ *  the SHA-1 of its contents then. The Stage keeps one for every file it
+ *  has hashed, so a file whose size, modification time, change time and
+ *  inode are all unchanged is known to still hold the same contents
+ *  without being read.
+ *
+ *  File systems only keep times to some granularity, so a file changed
+ *  again right after it was hashed can keep the same times. An entry whose
+ *  modification or change time is less than RACY_MILLIS before the moment
+ *  it was taken is therefore racy: it is never trusted, and the file is
+ *  hashed again, and a fresh entry taken, the next time it is needed.
+ *  @author Max Yao
+ */
+class FileStat {
+
+    /** How long before being taken a time must be for an entry to be
+     *  trusted. Two seconds covers the coarsest common file systems. */
+    static final long RACY_MILLIS = 2000;
+
+    /** The attributes read from file systems with a "unix" view. */
+    private static final String UNIX_ATTRIBUTES =
+            "unix:size,lastModifiedTime,ctime,ino,isRegularFile";
+
+    /** Length of the file in bytes. */
+    private final long size;
+
+    /** Modification time in nanoseconds since the epoch. */
+    private final long mtime;
+
+    /** Change time in nanoseconds since the epoch, or the creation time
+     *  where there is none. */
+    private final long ctime;
+
+    /** Inode number, or 0 where there is none. */
+    private final long inode;
+
+    /** When this was taken, in milliseconds since the epoch. */
+    private final long taken;
+
+    /** SHA-1 of the contents, or null until they are hashed. */
+    private final String hash;
+
+    /** A FileStat of SIZE, MTIME, CTIME and INODE, taken at TAKEN, of a
+     *  file whose contents hash to HASH. */
+    private FileStat(long size, long mtime, long ctime, long inode,
+                     long taken, String hash) {
+        this.size = size;
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.inode = inode;
+        this.taken = taken;
+        this.hash = hash;
+    }
+
+    /** Returns the current stat data of FILE, not yet hashed, or null if
+     *  FILE isn't a plain file. */
+    static FileStat of(File file) {
+        Path path = file.toPath();
+        long now = System.currentTimeMillis();
+        try {
+            Map<String, Object> unix = Files.readAttributes(path,
+                    UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            if ((Boolean) unix.get("isRegularFile")) {
+                return new FileStat((Long) unix.get("size"),
+                        nanos((FileTime) unix.get("lastModifiedTime")),
+                        nanos((FileTime) unix.get("ctime")),
+                        (Long) unix.get("ino"), now, null);
+            }
+            return null;
+        } catch (UnsupportedOperationException excp) {
+            return basic(path, now);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the FileStat of FILE now, hashed, or null if FILE isn't a
+     *  plain file. KNOWN, the FileStat kept from when FILE was last hashed,
+     *  or null, is returned as it is if it still matches, so FILE is only
+     *  read if it changed. */
+    static FileStat refresh(File file, FileStat known) {
+        FileStat current = of(file);
+        if (current == null) {
+            return null;
+        }
+        if (known != null && known.stillMatches(current)) {
+            return known;
+        }
+        return current.withHash(Utils.storedFileName(file));
+    }
+
+    /** Returns true if FILE is known not to have changed since KNOWN, its
+     *  FileStat then, or null if it didn't exist, was taken. */
+    static boolean unchanged(File file, FileStat known) {
+        FileStat current = of(file);
+        return known == null ? current == null : known.stillMatches(current);
+    }
+
+    /** Returns the stat data of the file at PATH from the basic view,
+     *  taken at NOW, or null if it isn't a plain file. */
+    private static FileStat basic(Path path, long now) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path,
+                    BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new FileStat(attributes.size(),
+                    nanos(attributes.lastModifiedTime()),
+                    nanos(attributes.creationTime()), 0, now, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns TIME in nanoseconds since the epoch. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Returns this stat data with the contents hashing to HASH. */
+    FileStat withHash(String hash) {
+        return new FileStat(size, mtime, ctime, inode, taken, hash);
+    }
+
+    /** Returns the length of the file in bytes. */
+    long size() {
+        return size;
+    }
+
+    /** Returns the SHA-1 of the contents. */
+    String hash() {
+        return hash;
+    }
+
+    /** Returns true if CURRENT, the stat data of the same file now, shows
+     *  it unchanged since this was taken, and this isn't racy. */
+    boolean stillMatches(FileStat current) {
+        return current != null && current.size == size
+                && current.mtime == mtime && current.ctime == ctime
+                && current.inode == inode && !isRacy();
+    }
+
+    /** Returns true if the file could have changed within the time
+     *  granularity of the moment this was taken. */
+    private boolean isRacy() {
+        long limit = TimeUnit.MILLISECONDS.toNanos(taken - RACY_MILLIS);
+        return mtime >= limit || ctime >= limit;
+    }
+
+    /** Returns a FileStat read from IN. */
+    static FileStat decode(DataInputStream in) throws IOException {
+        return new FileStat(in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readLong(), RecordIO.readHash(in));
+    }
+
+    /** Writes this FileStat, which must be hashed, to OUT. */
+    void encode(DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(mtime);
+        out.writeLong(ctime);
+        out.writeLong(inode);
+        out.writeLong(taken);
+        RecordIO.writeHash(out, hash);
+    }
+}
@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.File;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Removes the commits, objects and staged file versions that no branch
+ *  can reach, so histories abandoned by reset and rm-branch, and versions
+ *  added but never committed, don't stay in /.gitlet/ forever, along with
+ *  temporary Journal files a crashed command left behind.
+ *
+ *  Marking starts from the head of every branch, follows both parents of
+ *  every commit through the CommitGraph, and then walks the tree of every
+ *  reachable commit. Everything the Stage refers to is kept as well. What
+ *  is left unmarked is only removed once it has been found unreachable
+ *  for the number of seconds in the gc.grace setting, so data written by
+ *  a command that hasn't finished, or a commit just left behind by reset,
+ *  survives; the time each item was first found unreachable is kept in
+ *  /.gitlet/unreachable as "KIND NAME SECONDS" lines. Surviving loose
+ *  objects are then folded into the pack, and the pack is rewritten
+ *  without the expired objects.
+ *  @author Max Yao
+ */
+class GarbageCollector {
+
+    /** The file holding when unreachable items were first found. */
+    static final File UNREACHABLE_FILE = new File("./.gitlet/unreachable");
+
+    /** Seconds unreachable data is kept unless gc.grace says otherwise:
+     *  two weeks. */
+    static final int DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** Number of loose objects past which commits run gc unless gc.auto
+     *  says otherwise. */
+    static final int DEFAULT_AUTO = 1000;
+
+    /** Directory holding the commits. */
+    private static final File COMMITS_DIR = new File("./.gitlet/commits/");
+
+    /** Directory holding staged file versions. */
+    private static final File STAGE_DIR = new File("./.gitlet/stage/");
+
+    /** Directories whose sizes make up the size of the repository. */
+    private static final File[] STORAGE_DIRS = {COMMITS_DIR,
+        new File(ObjectStore.FILES_DIR), STAGE_DIR,
+        new File(ObjectStore.PACK_DIR)};
+
+    /** When each unreachable item was first found, in seconds since the
+     *  epoch, as read from UNREACHABLE_FILE. */
+    private final HashMap<String, Long> firstFound;
+
+    /** The items still unreachable but kept by this run, with the time
+     *  they were first found. */
+    private final HashMap<String, Long> kept = new HashMap<>();
+
+    /** The time of this run in seconds since the epoch. */
+    private final long now = System.currentTimeMillis() / 1000;
+
+    /** The grace period in seconds. */
+    private final long grace = Config.getInt(Config.GC_GRACE,
+            DEFAULT_GRACE);
+
+    /** A collector for the repository in the current directory. */
+    private GarbageCollector() {
+        firstFound = readUnreachable();
+    }
+
+    /** Collects the garbage of the repository in the current directory
+     *  and returns a report of what was removed, the bytes reclaimed and
+     *  the time taken. */
+    static String run() {
+        return new GarbageCollector().collect();
+    }
+
+    /** Runs gc, printing its report, if there are more loose objects than
+     *  the gc.auto setting allows. */
+    static void autoRun() {
+        int limit = Config.getInt(Config.GC_AUTO, DEFAULT_AUTO);
+        String[] loose = new File(ObjectStore.FILES_DIR).list();
+        if (limit > 0 && loose != null && loose.length > limit) {
+            System.out.println(run());
+        }
+    }
+
+    /** Marks and sweeps the repository and returns the report. */
+    private String collect() {
+        long start = System.nanoTime();
+        long sizeBefore = repositorySize();
+        HashSet<String> commits = reachableCommits();
+        HashSet<String> objects = reachableObjects(commits);
+        HashSet<String> staged = stagedObjects();
+        objects.addAll(staged);
+
+        int removedCommits = 0;
+        for (File file : COMMITS_DIR.listFiles()) {
+            String id = file.getName().substring(0, UID_LENGTH);
+            if (!commits.contains(id) && expired("commit " + id)) {
+                file.delete();
+                removedCommits += 1;
+            }
+        }
+        int removedObjects = 0;
+        for (File file : new File(ObjectStore.FILES_DIR).listFiles()) {
+            String name = file.getName();
+            if (ObjectStore.isStoredName(name) && !objects.contains(name)
+                    && expired("object " + name)) {
+                file.delete();
+                removedObjects += 1;
+            }
+        }
+        int removedStaged = 0;
+        for (File file : STAGE_DIR.listFiles()) {
+            String name = file.getName();
+            if (!name.equals("STAGE.ser") && !staged.contains(name)
+                    && expired("stage " + name)) {
+                file.delete();
+                removedStaged += 1;
+            }
+        }
+        for (File file : Journal.DIR.listFiles()) {
+            String name = file.getName();
+            if (name.startsWith(Journal.TEMP_PREFIX)
+                    && expired("temp " + name)) {
+                file.delete();
+            }
+        }
+
+        ObjectStore.repack(Commit.storedNameHints());
+        HashSet<String> drop = new HashSet<>();
+        for (String hash : ObjectStore.packedObjects()) {
+            if (!objects.contains(hash) && expired("object " + hash)) {
+                drop.add(hash);
+            }
+        }
+        removedObjects += ObjectStore.dropPacked(drop);
+        if (removedCommits > 0) {
+            CommitGraph.rebuild();
+            MergeBase.MEMO_FILE.delete();
+        }
+        writeUnreachable();
+
+        long reclaimed = sizeBefore - repositorySize();
+        long millis = (System.nanoTime() - start) / 1000000;
+        return String.format("Removed %d commits, %d objects and %d staged "
+                + "files, reclaiming %d bytes in %d ms.", removedCommits,
+                removedObjects, removedStaged, reclaimed, millis);
+    }
+
+    /** Returns true if the unreachable item KEY has been unreachable for
+     *  longer than the grace period. Otherwise remembers it as kept and
+     *  returns false. */
+    private boolean expired(String key) {
+        Long found = firstFound.get(key);
+        long first = found == null ? now : found;
+        if (now - first >= grace) {
+            return true;
+        }
+        kept.put(key, first);
+        return false;
+    }
+
+    /** Returns the IDs of every commit reachable from a branch head,
+     *  following both parents. */
+    private static HashSet<String> reachableCommits() {
+        Branch branch = Branch.loadBranch();
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (String name : branch.getAllBranches()) {
+            pending.push(CommitGraph.position(
+                    branch.getBranchHeadCommitID(name)));
+        }
+        HashSet<Integer> visited = new HashSet<>();
+        HashSet<String> commits = new HashSet<>();
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (!visited.add(pos)) {
+                continue;
+            }
+            commits.add(CommitGraph.commitID(pos));
+            for (int parent : new int[] {CommitGraph.parent(pos),
+                    CommitGraph.givenParent(pos)}) {
+                if (parent != CommitGraph.NONE) {
+                    pending.push(parent);
+                }
+            }
+        }
+        return commits;
+    }
+
+    /** Returns the stored names of every tree node and file version of
+     *  the commits COMMITS. */
+    private static HashSet<String> reachableObjects(HashSet<String> commits) {
+        HashSet<String> objects = new HashSet<>();
+        HashMap<String, String> files = new HashMap<>();
+        for (String id : commits) {
+            Tree.collectNames(Commit.loadCommit(id).getTreeSha(), objects,
+                    files);
+        }
+        objects.addAll(files.keySet());
+        return objects;
+    }
+
+    /** Returns the stored names of the file versions the Stage refers
+     *  to. */
+    private static HashSet<String> stagedObjects() {
+        Stage stage = Stage.loadStage();
+        HashSet<String> staged = new HashSet<>();
+        for (String file : stage.getOnStageFiles()) {
+            staged.add(stage.getOnStageStoredName(file));
+        }
+        return staged;
+    }
+
+    /** Returns the total length of the files in STORAGE_DIRS. */
+    private static long repositorySize() {
+        long size = 0;
+        for (File dir : STORAGE_DIRS) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /** Returns the times read from UNREACHABLE_FILE, keyed by "KIND NAME".
+     *  A missing or damaged file only restarts the grace periods. */
+    private static HashMap<String, Long> readUnreachable() {
+        HashMap<String, Long> result = new HashMap<>();
+        if (!UNREACHABLE_FILE.isFile()) {
+            return result;
+        }
+        for (String line : readContentsAsString(UNREACHABLE_FILE)
+                .split("\n")) {
+            int split = line.lastIndexOf(' ');
+            if (split > 0) {
+                try {
+                    result.put(line.substring(0, split),
+                            Long.parseLong(line.substring(split + 1)));
+                } catch (NumberFormatException excp) {
+                    continue;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Replaces UNREACHABLE_FILE with the items kept by this run. */
+    private void writeUnreachable() {
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, Long> entry : kept.entrySet()) {
+            lines.append(entry.getKey()).append(' ')
+                    .append(entry.getValue()).append('\n');
+        }
+        writeContents(UNREACHABLE_FILE, lines.toString());
+    }
+}
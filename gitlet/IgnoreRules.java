@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static gitlet.Utils.*;
+
+/** The patterns of /.gitletignore, naming the files and directories that
+ *  walks of the working directory skip, so they are never listed as
+ *  untracked or added with a directory. Files already tracked, or named
+ *  on their own, are never ignored.
+ *
+ *  Each line is a pattern, except blank lines and lines starting with #.
+ *  A pattern ending in / only matches directories. A pattern with no
+ *  other / matches the name of a file or directory at any depth;
+ *  otherwise it matches the whole path from the root of the working
+ *  directory, with a leading / allowed. In a pattern, * matches anything
+ *  but /, ? matches any one character but /, and ** matches anything,
+ *  including /, so that a / after it may match nothing. A pattern starting
+ *  with ! makes what it matches not ignored again. The last pattern
+ *  matching a path decides; nothing under an ignored directory is looked
+ *  at. The /.gitlet directory is always ignored.
+ *  @author Max Yao
+ */
+class IgnoreRules {
+
+    /** The file holding the patterns. */
+    static final File IGNORE_FILE = new File("./.gitletignore");
+
+    /** A single pattern. */
+    private static class Rule {
+        /** What the pattern matches. */
+        private final Pattern pattern;
+        /** True if the pattern matches whole paths, not just names. */
+        private final boolean anchored;
+        /** True if the pattern only matches directories. */
+        private final boolean dirOnly;
+        /** True if what the pattern matches is not ignored. */
+        private final boolean negated;
+
+        /** The rule of the line LINE of an ignore file. */
+        Rule(String line) {
+            negated = line.startsWith("!");
+            if (negated) {
+                line = line.substring(1);
+            }
+            dirOnly = line.endsWith("/");
+            if (dirOnly) {
+                line = line.substring(0, line.length() - 1);
+            }
+            anchored = line.contains("/");
+            if (line.startsWith("/")) {
+                line = line.substring(1);
+            }
+            pattern = Pattern.compile(toRegex(line));
+        }
+
+        /** Returns true if this rule matches PATH, a directory if ISDIR,
+         *  whose last part is NAME. */
+        boolean matches(String path, String name, boolean isDir) {
+            return (isDir || !dirOnly)
+                    && pattern.matcher(anchored ? path : name).matches();
+        }
+    }
+
+    /** The rules, in the order of their lines. */
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** Returns the rules of IGNORE_FILE, which are none if it doesn't
+     *  exist. */
+    static IgnoreRules load() {
+        IgnoreRules result = new IgnoreRules();
+        if (IGNORE_FILE.isFile()) {
+            for (String line : readContentsAsString(IGNORE_FILE)
+                    .split("\r?\n")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")
+                        && !line.equals("!") && !line.equals("/")) {
+                    result.rules.add(new Rule(line));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if PATH, relative to the root of the working directory
+     *  and a directory if ISDIR, is ignored. Its parent directories are
+     *  assumed not to be. */
+    boolean isIgnored(String path, boolean isDir) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (isDir && name.equals(".gitlet")) {
+            return true;
+        }
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if (rule.negated == ignored && rule.matches(path, name, isDir)) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    /** Returns a regular expression matching what GLOB does. */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i += 1) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length()
+                    && glob.charAt(i + 1) == '*') {
+                i += 1;
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                    i += 1;
+                    regex.append("(?:.*/)?");
+                } else {
+                    regex.append(".*");
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
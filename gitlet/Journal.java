@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** Keeps the records of /.gitlet/ whole and consistent across crashes. A
+ *  record is never overwritten in place: it is written to a temporary file
+ *  in /.gitlet/ and then renamed over the old one. The records a command
+ *  changes together, such as the Stage, Commit and Branch of a commit, are
+ *  written between begin and commit. Their temporary files are only
+ *  renamed by commit, after it has written the list of renames to
+ *  /.gitlet/journal, so if the process or the host dies halfway, the next
+ *  command finds the journal and finishes the renames. A journal cut short
+ *  fails its checksum and is dropped along with the whole group.
+ *
+ *  How much of that survives a power failure is the core.durability
+ *  setting. NONE never syncs, so only a crash of the process is safe.
+ *  BATCH, the default, syncs every object written since the last record,
+ *  and the record's temporary file, together just before the record is
+ *  renamed into place, so a command syncs once however many files it
+ *  writes. ALWAYS syncs every file as soon as it is written.
+ *  @author Max Yao
+ */
+class Journal {
+
+    /** Never sync. */
+    static final String NONE = "none";
+
+    /** Sync what a record depends on in one batch before it is installed. */
+    static final String BATCH = "batch";
+
+    /** Sync every file when it is written. */
+    static final String ALWAYS = "always";
+
+    /** The directory records are kept in. */
+    static final File DIR = new File("./.gitlet/");
+
+    /** The journal of the group of renames being made. */
+    static final File JOURNAL_FILE = new File("./.gitlet/journal");
+
+    /** Start of the name of every temporary record file. */
+    static final String TEMP_PREFIX = "record-";
+
+    /** Magic number of the journal, "GLJN". */
+    private static final int MAGIC = 0x474c4a4e;
+
+    /** The temporary files written since begin, by the record they
+     *  replace, or null outside begin and commit. */
+    private static LinkedHashMap<File, File> group;
+
+    /** Files written since the last record was installed that aren't
+     *  synced yet. */
+    private static final LinkedHashSet<File> unsynced = new LinkedHashSet<>();
+
+    /** Returns the core.durability setting. */
+    static String durability() {
+        return Config.get(Config.DURABILITY, BATCH);
+    }
+
+    /** Returns true if DURABILITY names a durability mode. */
+    static boolean isMode(String durability) {
+        return durability.equals(NONE) || durability.equals(BATCH)
+                || durability.equals(ALWAYS);
+    }
+
+    /** Returns a new empty temporary file in DIR to write a record to. */
+    static File createTemp() throws IOException {
+        return File.createTempFile(TEMP_PREFIX, ".tmp", DIR);
+    }
+
+    /** Starts a group of records that are installed together by commit. */
+    static synchronized void begin() {
+        group = new LinkedHashMap<>();
+    }
+
+    /** Installs TEMP, a file from createTemp holding the new contents of
+     *  the record TARGET: right away, or with the rest of its group if
+     *  begin was called. */
+    static synchronized void replace(File temp, File target)
+            throws IOException {
+        if (group != null) {
+            File older = group.put(target, temp);
+            if (older != null) {
+                older.delete();
+            }
+            return;
+        }
+        Map<File, File> single = new LinkedHashMap<>();
+        single.put(target, temp);
+        install(single, false);
+    }
+
+    /** Installs every record written since begin: syncs them with what
+     *  they depend on, writes the journal, renames them into place and
+     *  drops the journal. */
+    static synchronized void commit() {
+        Map<File, File> records = group;
+        group = null;
+        if (records != null && !records.isEmpty()) {
+            try {
+                install(records, true);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Notes that FILE, an object or other file a later record will name,
+     *  was just written to, or renamed into, its place. */
+    static synchronized void written(File file) {
+        if (durability().equals(ALWAYS)) {
+            sync(file);
+            sync(file.getAbsoluteFile().getParentFile());
+        } else if (durability().equals(BATCH)) {
+            unsynced.add(file);
+        }
+    }
+
+    /** Ends the current command: drops the records of a group that was
+     *  never committed and forgets what was never synced. */
+    static synchronized void finish() {
+        if (group != null) {
+            for (File temp : group.values()) {
+                temp.delete();
+            }
+            group = null;
+        }
+        unsynced.clear();
+    }
+
+    /** Finishes the renames of a journal a crash left behind, or drops it
+     *  if it was cut short, along with the temporary files it names. */
+    static synchronized void recover() {
+        if (!JOURNAL_FILE.isFile()) {
+            return;
+        }
+        Map<File, File> records = readJournal();
+        if (records == null) {
+            System.err.println("Dropping the incomplete journal of a "
+                    + "command that was interrupted.");
+        } else {
+            System.err.println("Finishing the journal of a command that "
+                    + "was interrupted.");
+            try {
+                rename(records);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        JOURNAL_FILE.delete();
+    }
+
+    /** Syncs the temporary files of RECORDS along with every file they may
+     *  depend on, then renames them over the records. The renames are
+     *  written to the journal first if JOURNALED. */
+    private static void install(Map<File, File> records, boolean journaled)
+            throws IOException {
+        String durability = durability();
+        if (!durability.equals(NONE)) {
+            unsynced.addAll(records.values());
+            File[] files = unsynced.toArray(new File[0]);
+            WorkingFiles.forEach(files.length, i -> sync(files[i]));
+            LinkedHashSet<File> dirs = new LinkedHashSet<>();
+            for (File file : files) {
+                dirs.add(file.getAbsoluteFile().getParentFile());
+            }
+            for (File dir : dirs) {
+                sync(dir);
+            }
+            unsynced.clear();
+        }
+        if (journaled) {
+            writeJournal(records, !durability.equals(NONE));
+        }
+        rename(records);
+        if (!durability.equals(NONE)) {
+            LinkedHashSet<File> dirs = new LinkedHashSet<>();
+            for (File target : records.keySet()) {
+                dirs.add(target.getAbsoluteFile().getParentFile());
+            }
+            for (File dir : dirs) {
+                sync(dir);
+            }
+        }
+        if (journaled) {
+            JOURNAL_FILE.delete();
+        }
+    }
+
+    /** Renames the temporary file of each of RECORDS over its record,
+     *  skipping those already renamed. */
+    private static void rename(Map<File, File> records) throws IOException {
+        for (Map.Entry<File, File> record : records.entrySet()) {
+            if (record.getValue().isFile()) {
+                Files.move(record.getValue().toPath(),
+                        record.getKey().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /** Writes RECORDS to JOURNAL_FILE as MAGIC, their count, the path of
+     *  each record and of its temporary file, and the CRC-32 of all that,
+     *  and syncs it if SYNC. */
+    private static void writeJournal(Map<File, File> records, boolean sync)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        FileOutputStream file = new FileOutputStream(JOURNAL_FILE);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new CheckedOutputStream(file, crc)))) {
+            out.writeInt(MAGIC);
+            RecordIO.writeVarInt(out, records.size());
+            for (Map.Entry<File, File> record : records.entrySet()) {
+                RecordIO.writeString(out, record.getKey().getPath());
+                RecordIO.writeString(out, record.getValue().getPath());
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            if (sync) {
+                file.getFD().sync();
+            }
+        }
+    }
+
+    /** Returns the renames held by JOURNAL_FILE, or null if it is cut
+     *  short or fails its checksum, in which case the temporary files it
+     *  names so far are deleted. */
+    private static Map<File, File> readJournal() {
+        LinkedHashMap<File, File> records = new LinkedHashMap<>();
+        List<File> temps = new ArrayList<>();
+        try {
+            byte[] contents = Files.readAllBytes(JOURNAL_FILE.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(contents, 0, Math.max(contents.length - 4, 0));
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(contents));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int count = RecordIO.readVarInt(in);
+            for (int i = 0; i < count; i += 1) {
+                File target = new File(RecordIO.readString(in));
+                File temp = new File(RecordIO.readString(in));
+                temps.add(temp);
+                records.put(target, temp);
+            }
+            if (in.readInt() == (int) crc.getValue()
+                    && in.available() == 0) {
+                return records;
+            }
+        } catch (IOException excp) {
+            /* Cut short; dropped below. */
+        }
+        for (File temp : temps) {
+            if (temp.getName().startsWith(TEMP_PREFIX)) {
+                temp.delete();
+            }
+        }
+        return null;
+    }
+
+    /** Forces FILE, a file or directory, to disk. Directories can't be
+     *  opened on some systems, which then keep names safe by
+     *  themselves. */
+    private static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory() && file.exists()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
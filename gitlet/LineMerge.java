@@ -0,0 +1,417 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Three-way merges of text files by lines, as diff3 does. The lines of
+ *  the version at the split point, the base, are matched against the
+ *  lines of both other versions with Myers' diff, in its linear space
+ *  form. Runs of base lines both versions kept unchanged and in place
+ *  split the files into chunks; a chunk only one side changed takes that
+ *  side, and a chunk both sides changed the same way takes either. Only a
+ *  chunk the two sides changed differently is a conflict, written as
+ *
+ *      <<<<<<< HEAD
+ *      lines of the current branch
+ *      =======
+ *      lines of the given branch
+ *      >>>>>>>
+ *
+ *  The merge is written to its stream chunk by chunk, straight from the
+ *  three inputs. Files holding a zero byte or larger than MAX_BYTES are
+ *  not text: readText refuses them and their conflicts take the whole
+ *  file.
+ *  @author Max Yao
+ */
+class LineMerge {
+
+    /** Largest version of a file merged by lines. */
+    static final int MAX_BYTES = 64 << 20;
+
+    /** Number of edits past which a diff stops looking for the shortest
+     *  script and splits at the furthest point it reached, so files with
+     *  many changes take time linear in their size per edit it allows. */
+    private static final int MAX_EDITS = 1 << 12;
+
+    /** Marker opening a conflict. */
+    private static final byte[] OURS_MARKER =
+            "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Marker between the two sides of a conflict. */
+    private static final byte[] SPLIT_MARKER =
+            "=======\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Marker closing a conflict. */
+    private static final byte[] THEIRS_MARKER =
+            ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The lines of one version of a file. */
+    private static class Text {
+        /** The contents. */
+        private final byte[] data;
+        /** The offset of every line in DATA, then the length of DATA. */
+        private final int[] starts;
+        /** The number of every line, equal for equal lines. */
+        private final int[] ids;
+
+        /** The lines of DATA, numbered through IDS. */
+        Text(byte[] data, LineIds lineIds) {
+            this.data = data;
+            int count = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    count += 1;
+                }
+            }
+            starts = new int[count + 1];
+            ids = new int[count];
+            int line = 0;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' || i == data.length - 1) {
+                    starts[line + 1] = i + 1;
+                    ids[line] = lineIds.idOf(data, starts[line], i + 1);
+                    line += 1;
+                }
+            }
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** Writes lines FROM up to TO to OUT, then a newline if the last
+         *  one has none and MARKED is true, as a marker follows. */
+        void write(int from, int to, boolean marked, OutputStream out)
+                throws IOException {
+            out.write(data, starts[from], starts[to] - starts[from]);
+            if (marked && to > from && data[starts[to] - 1] != '\n') {
+                out.write('\n');
+            }
+        }
+    }
+
+    /** Numbers given to the lines of the files of one merge. */
+    private static class LineIds {
+        /** A line of a file, as a key. */
+        private static class Line {
+            /** The file holding the line. */
+            private final byte[] data;
+            /** Where the line starts. */
+            private final int start;
+            /** Where the line ends. */
+            private final int end;
+            /** The hash code of the line. */
+            private final int hash;
+
+            /** The line from START to END of DATA. */
+            Line(byte[] data, int start, int end) {
+                this.data = data;
+                this.start = start;
+                this.end = end;
+                int h = 1;
+                for (int i = start; i < end; i += 1) {
+                    h = 31 * h + data[i];
+                }
+                hash = h;
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object other) {
+                if (!(other instanceof Line)) {
+                    return false;
+                }
+                Line line = (Line) other;
+                if (hash != line.hash || end - start != line.end - line.start) {
+                    return false;
+                }
+                for (int i = 0; i < end - start; i += 1) {
+                    if (data[start + i] != line.data[line.start + i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+
+        /** The number of every line seen. */
+        private final HashMap<Line, Integer> ids = new HashMap<>();
+
+        /** Returns the number of the line from START to END of DATA. */
+        int idOf(byte[] data, int start, int end) {
+            Line line = new Line(data, start, end);
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            return id;
+        }
+    }
+
+    /** Returns the contents of the object stored under STOREDNAME, or
+     *  null if they hold a zero byte or are larger than MAX_BYTES, so
+     *  they are not merged by lines. */
+    static byte[] readText(String storedName) throws IOException {
+        try (InputStream in = ObjectStore.open(storedName)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[Compression.BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                if (out.size() + n > MAX_BYTES) {
+                    return null;
+                }
+                for (int i = 0; i < n; i += 1) {
+                    if (buffer[i] == 0) {
+                        return null;
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /** Writes to OUT the merge of OURS and THEIRS, two versions of a file
+     *  changed from BASE, and returns the number of conflicts in it. */
+    static int merge(byte[] base, byte[] ours, byte[] theirs,
+                     OutputStream out) throws IOException {
+        LineIds lineIds = new LineIds();
+        Text o = new Text(base, lineIds);
+        Text a = new Text(ours, lineIds);
+        Text b = new Text(theirs, lineIds);
+        int[] toA = match(o.ids, a.ids);
+        int[] toB = match(o.ids, b.ids);
+        int conflicts = 0;
+        int lo = 0;
+        int la = 0;
+        int lb = 0;
+        while (true) {
+            int stable = 0;
+            while (lo + stable < o.size() && toA[lo + stable] == la + stable
+                    && toB[lo + stable] == lb + stable) {
+                stable += 1;
+            }
+            if (stable > 0) {
+                o.write(lo, lo + stable, false, out);
+                lo += stable;
+                la += stable;
+                lb += stable;
+            }
+            int next = lo;
+            while (next < o.size() && (toA[next] < 0 || toB[next] < 0)) {
+                next += 1;
+            }
+            int ha = next < o.size() ? toA[next] : a.size();
+            int hb = next < o.size() ? toB[next] : b.size();
+            if (next == lo && ha == la && hb == lb) {
+                return conflicts;
+            }
+            if (same(o, lo, next, a, la, ha)) {
+                b.write(lb, hb, false, out);
+            } else if (same(o, lo, next, b, lb, hb)
+                    || same(a, la, ha, b, lb, hb)) {
+                a.write(la, ha, false, out);
+            } else {
+                conflicts += 1;
+                out.write(OURS_MARKER);
+                a.write(la, ha, true, out);
+                out.write(SPLIT_MARKER);
+                b.write(lb, hb, true, out);
+                out.write(THEIRS_MARKER);
+            }
+            lo = next;
+            la = ha;
+            lb = hb;
+        }
+    }
+
+    /** Returns true if lines FROM1 up to TO1 of TEXT1 are lines FROM2 up to
+     *  TO2 of TEXT2. */
+    private static boolean same(Text text1, int from1, int to1,
+                                Text text2, int from2, int to2) {
+        if (to1 - from1 != to2 - from2) {
+            return false;
+        }
+        for (int i = 0; i < to1 - from1; i += 1) {
+            if (text1.ids[from1 + i] != text2.ids[from2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns, for each line of A, the line of B it is matched with by a
+     *  diff of A and B, or -1 if it was deleted. Matches are in order. */
+    static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        new Diff(a, b, result).compare(0, a.length, 0, b.length);
+        return result;
+    }
+
+    /** A linear space Myers diff of two sequences of line numbers. */
+    private static class Diff {
+        /** The first sequence. */
+        private final int[] a;
+        /** The second sequence. */
+        private final int[] b;
+        /** Where the line of B matching each line of A is recorded. */
+        private final int[] matches;
+
+        /** A diff of A and B recording its matches in MATCHES. */
+        Diff(int[] a, int[] b, int[] matches) {
+            this.a = a;
+            this.b = b;
+            this.matches = matches;
+        }
+
+        /** Matches lines ALO up to AHI of a with lines BLO up to BHI of b,
+         *  after matching the lines they start and end with alike, by
+         *  splitting them where a middle snake crosses. */
+        void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                matches[aLo] = bLo;
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+                matches[aHi] = bHi;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                return;
+            }
+            long split = split(aLo, aHi, bLo, bHi);
+            if (split < 0) {
+                return;
+            }
+            int x = (int) (split >>> 32);
+            int y = (int) split;
+            compare(aLo, x, bLo, y);
+            compare(x, aHi, y, bHi);
+        }
+
+        /** Returns the point, as X << 32 | Y, where a shortest edit script
+         *  of lines ALO up to AHI of a and BLO up to BHI of b crosses the
+         *  middle of its edits, or the furthest point reached after
+         *  MAX_EDITS edits if it has more. Returns -1 if the two share no
+         *  line on that path, so none match. */
+        private long split(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int maxD = (n + m + 1) / 2;
+            int offset = maxD + 1;
+            int length = 2 * maxD + 3;
+            int[] forward = new int[length];
+            int[] reverse = new int[length];
+            Arrays.fill(forward, -1);
+            Arrays.fill(reverse, -1);
+            forward[offset + 1] = 0;
+            reverse[offset + 1] = 0;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int k1Start = 0;
+            int k1End = 0;
+            int k2Start = 0;
+            int k2End = 0;
+            int bestX = 0;
+            int bestY = 0;
+            for (int d = 0; d < maxD; d += 1) {
+                if (d > MAX_EDITS) {
+                    return splitAt(aLo, aHi, bLo, bHi, bestX, bestY);
+                }
+                for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                    int k1Offset = offset + k1;
+                    int x1;
+                    if (k1 == -d || (k1 != d
+                            && forward[k1Offset - 1] < forward[k1Offset + 1])) {
+                        x1 = forward[k1Offset + 1];
+                    } else {
+                        x1 = forward[k1Offset - 1] + 1;
+                    }
+                    int y1 = x1 - k1;
+                    while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                        x1 += 1;
+                        y1 += 1;
+                    }
+                    forward[k1Offset] = x1;
+                    if (x1 > n) {
+                        k1End += 2;
+                    } else if (y1 > m) {
+                        k1Start += 2;
+                    } else {
+                        if (x1 + y1 > bestX + bestY) {
+                            bestX = x1;
+                            bestY = y1;
+                        }
+                        if (odd) {
+                            int k2Offset = offset + delta - k1;
+                            if (k2Offset >= 0 && k2Offset < length
+                                    && reverse[k2Offset] != -1
+                                    && x1 >= n - reverse[k2Offset]) {
+                                return splitAt(aLo, aHi, bLo, bHi, x1, y1);
+                            }
+                        }
+                    }
+                }
+                for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                    int k2Offset = offset + k2;
+                    int x2;
+                    if (k2 == -d || (k2 != d
+                            && reverse[k2Offset - 1] < reverse[k2Offset + 1])) {
+                        x2 = reverse[k2Offset + 1];
+                    } else {
+                        x2 = reverse[k2Offset - 1] + 1;
+                    }
+                    int y2 = x2 - k2;
+                    while (x2 < n && y2 < m
+                            && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                        x2 += 1;
+                        y2 += 1;
+                    }
+                    reverse[k2Offset] = x2;
+                    if (x2 > n) {
+                        k2End += 2;
+                    } else if (y2 > m) {
+                        k2Start += 2;
+                    } else if (!odd) {
+                        int k1Offset = offset + delta - k2;
+                        if (k1Offset >= 0 && k1Offset < length
+                                && forward[k1Offset] != -1) {
+                            int x1 = forward[k1Offset];
+                            int y1 = offset + x1 - k1Offset;
+                            if (x1 >= n - x2) {
+                                return splitAt(aLo, aHi, bLo, bHi, x1, y1);
+                            }
+                        }
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the point X, Y into lines ALO up to AHI of a and BLO up
+         *  to BHI of b as X << 32 | Y, or -1 if it is a corner, where
+         *  splitting would gain nothing. */
+        private static long splitAt(int aLo, int aHi, int bLo, int bHi,
+                                    int x, int y) {
+            if ((x == 0 && y == 0) || (aLo + x == aHi && bLo + y == bHi)) {
+                return -1;
+            }
+            return ((long) (aLo + x) << 32) | (bLo + y);
+        }
+    }
+}
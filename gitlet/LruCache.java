@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/** A cache of at most a given total weight of values, dropping the least
+ *  recently used ones first, which counts how often it had what was asked
+ *  for. Every method is synchronized, so threads working in parallel and
+ *  the commands of a server may share one. Values are shared with every
+ *  caller, so they must never be changed; key them by the hash of what
+ *  they hold, or by anything else naming contents that never change.
+ *  @author Max Yao
+ */
+class LruCache<K, V> {
+
+    /** The values, least recently used first. */
+    private final LinkedHashMap<K, V> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Largest total weight of the values kept. */
+    private final long capacity;
+
+    /** Returns the weight of a value. */
+    private final ToLongFunction<V> weigher;
+
+    /** Total weight of the values kept. */
+    private long weight;
+
+    /** Number of gets that found their key. */
+    private long hits;
+
+    /** Number of gets that didn't. */
+    private long misses;
+
+    /** A cache of at most CAPACITY values. */
+    LruCache(long capacity) {
+        this(capacity, value -> 1);
+    }
+
+    /** A cache of values whose weights, as given by WEIGHER, add up to at
+     *  most CAPACITY. Values heavier than a quarter of it are never kept,
+     *  so one can't push out everything else. */
+    LruCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached under KEY, or null. */
+    synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /** Caches VALUE under KEY, dropping the least recently used values
+     *  until the rest fit. */
+    synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > capacity / 4) {
+            return;
+        }
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += valueWeight;
+        Iterator<V> oldest = entries.values().iterator();
+        while (weight > capacity && oldest.hasNext()) {
+            weight -= weigher.applyAsLong(oldest.next());
+            oldest.remove();
+        }
+    }
+
+    /** Drops every value, keeping the counts of hits and misses. */
+    synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Returns the number of gets that found their key. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of gets that didn't find their key. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns the number of values kept. */
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -1,16 +1,26 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.nio.charset.StandardCharsets;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Formatter;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static gitlet.Utils.*;
 
@@ -22,6 +32,10 @@ public class Main {
      *  <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
         quickOperationCheck(args);
+        if (!args[0].equals("init") && !args[0].equals("delete")) {
+            Journal.recover();
+            Migration.upgrade();
+        }
         switch (args[0]) {
         case "init":
             doInit(args);
@@ -65,10 +79,29 @@ public class Main {
         case "delete":
             doDeleteGitlet(args);
             break;
+        case "repack":
+            doRepack(args);
+            break;
+        case "config":
+            doConfig(args);
+            break;
+        case "rev-parse":
+            doRevParse(args);
+            break;
+        case "gc":
+            doGc(args);
+            break;
+        case "watch":
+            doWatch(args);
+            break;
+        case "serve":
+            doServe(args);
+            break;
         default:
             printErrMsg("No command with that name exists.");
             exit();
         }
+        Journal.finish();
     }
 
     /** Handles the Init command. Pass in ARGS from main method. */
@@ -86,43 +119,79 @@ public class Main {
         commitsDir.mkdir();
         File stageDir = new File("./.gitlet/stage/");
         stageDir.mkdir();
+        Journal.begin();
         new Commit().storeCommit();
         new Branch().storeBranch();
         new Stage().storeStage();
+        Journal.commit();
+        CommitGraph.rebuild();
+        Config.set(Config.FORMAT, Integer.toString(Migration.CURRENT_FORMAT));
     }
 
     /** Handles the Add command. Pass in ARGS from main method. */
     static void doAdd(String... args) {
-        String fileName = args[1];
-        File targetFile = new File(fileName);
-        if (!targetFile.exists()) {
-            printErrMsg("File does not exist.");
-            exit();
+        long start = System.nanoTime();
+        IgnoreRules rules = IgnoreRules.load();
+        TreeSet<String> files = new TreeSet<>();
+        for (int i = 1; i < args.length; i += 1) {
+            List<String> matched = WorkingFiles.expand(args[i], rules);
+            if (matched.isEmpty()) {
+                printErrMsg("File does not exist.");
+                exit();
+            }
+            files.addAll(matched);
         }
         Stage stage = Stage.loadStage();
         Branch branch = Branch.loadBranch();
         String currBranch = branch.getCurrBranch();
         Commit currCommit = branch.getBranchHeadCommitObj(currBranch);
-        String storedFileName;
-        if (currCommit.getCommittedFiles().contains(fileName)) {
-            storedFileName = currCommit.getStoredCommittedFileName(fileName);
-            if (identicalFiles(targetFile,
-                    new File("./.gitlet/files/" + storedFileName))
-                    && fileName.equals(storedFileName.substring(
-                            UID_LENGTH + 2))) {
-                if (stage.isStaged(fileName)) {
-                    stage.removeFileFromStageMaps(fileName);
-                    stage.storeStage();
-                }
+        String[] names = files.toArray(new String[0]);
+        FileStat[] saved = null;
+        try {
+            saved = WorkingFiles.saveAll(stage, currCommit, names);
+        } catch (IllegalArgumentException iae) {
+            System.out.printf("An IAE occurred %s%n", iae.getMessage());
+            exit();
+        }
+        long bytesRead = 0;
+        for (int i = 0; i < names.length; i += 1) {
+            if (saved[i] == null) {
+                printErrMsg("File does not exist.");
                 exit();
             }
+            if (saved[i] != stage.knownStat(names[i])) {
+                bytesRead += saved[i].size();
+            }
+            stage.updateStat(names[i], saved[i]);
+            addFile(names[i], saved[i].hash(), currCommit, stage);
+        }
+        stage.storeStage();
+        if (names.length > 1) {
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            System.out.printf("Added %s, reading %.1f MB, in %.0f ms:"
+                    + " %.0f files/s, %.1f MB/s.%n",
+                    plural(names.length, "file"),
+                    bytesRead / 1048576.0, seconds * 1000,
+                    names.length / seconds, bytesRead / 1048576.0 / seconds);
+        }
+    }
+
+    /** Stages STOREDFILENAME, the version of the working file FILENAME
+     *  already copied into /.gitlet/stage/ unless stored or staged, in
+     *  STAGE, or unstages FILENAME if it is the version in CURRCOMMIT. */
+    private static void addFile(String fileName, String storedFileName,
+                                Commit currCommit, Stage stage) {
+        String committed = currCommit.getStoredCommittedFileName(fileName);
+        if (storedFileName.equals(committed)) {
+            if (stage.isStaged(fileName)) {
+                stage.removeFileFromStageMaps(fileName);
+            }
+            return;
         }
 
         stage.updateAddMap(fileName, true);
         stage.updateRemoveMap(fileName, false);
-        stage.saveFileToStage(fileName);
-        stage.updateOnStage(fileName, storedFileName(new File(fileName)));
-        stage.storeStage();
+        stage.updateOnStage(fileName, storedFileName);
     }
 
     /** Handles the Commit command. Pass in ARGS from main method. */
@@ -144,15 +213,19 @@ public class Main {
         Commit newCommit = new Commit(currBranchCommit.getCommitID(), msg);
         newCommit.processStage(stage);
         stage.setLatestCommitID(newCommit.getCommitID());
+        Journal.begin();
         stage.storeStage();
         newCommit.storeCommit();
         branch.updateBranchHead(currBranch, newCommit.getCommitID());
         branch.storeBranch();
+        Journal.commit();
+        CommitGraph.add(newCommit);
+        GarbageCollector.autoRun();
     }
 
     /** Handles the Rm command. Pass in ARGS from main method. */
     static void doRm(String... args) {
-        String fileName = args[1];
+        String fileName = workingName(args[1]);
         Stage stage = Stage.loadStage();
         Branch branch = Branch.loadBranch();
         String currBranch = branch.getCurrBranch();
@@ -176,7 +249,7 @@ public class Main {
             stage.updateAddMap(fileName, false);
             stage.updateOnStage(fileName, currCommitStoredName);
             stage.updateRemoveMap(fileName, true);
-            restrictedDelete(fileName);
+            WorkingFiles.delete(fileName);
             stage.storeStage();
         }
         if (!isStaged && !isTracked) {
@@ -185,42 +258,69 @@ public class Main {
         }
     }
 
-    /** Handles the Log command. Pass in ARGS from main method. */
+    /** Handles the Log command. Pass in ARGS from main method. The entries
+     *  are read from the CommitGraph, without loading any Commit. */
     static void doLog(String... args) {
         Branch branch = Branch.loadBranch();
         String currBranch = branch.getCurrBranch();
-        String currCommitID = branch.getBranchHeadCommitID(currBranch);
-        Commit currCommitObj;
+        int pos = CommitGraph.position(
+                branch.getBranchHeadCommitID(currBranch));
         do {
-            currCommitObj = Commit.loadCommit(currCommitID);
-            System.out.println(currCommitObj.toString());
-            currCommitID = currCommitObj.getParentSha();
-        } while (currCommitID != null);
+            System.out.println(CommitGraph.logEntry(pos));
+            pos = CommitGraph.parent(pos);
+        } while (pos != CommitGraph.NONE);
     }
 
     /** Handles the Global-log command. Pass in ARGS from main method. */
     static void doGlobalLog(String... args) {
-        File commits = new File("./.gitlet/commits/");
-        Commit existing;
-        for (File file : commits.listFiles()) {
-            existing = Commit.loadCommit(
-                    file.getName().substring(0, UID_LENGTH));
-            System.out.println(existing.toString());
+        int commits = CommitGraph.size();
+        for (int pos = 0; pos < commits; pos += 1) {
+            System.out.println(CommitGraph.logEntry(pos));
         }
     }
 
-    /** Handles the Find command. Pass in ARGS from main method. */
+    /** Handles the Find command. Pass in ARGS from main method. By default
+     *  a commit matches if its message equals the given one; with
+     *  --substring if its message contains it, and with --regex if a part of
+     *  its message matches it. Only the commits the MessageIndex lists as
+     *  containing the message's words are checked. */
     static void doFind(String... args) {
-        String msg = args[1];
+        String mode = args.length == 3 ? args[1] : "--exact";
+        String msg = args[args.length - 1];
+        Pattern pattern = null;
+        List<String> words;
+        if (mode.equals("--regex")) {
+            try {
+                pattern = Pattern.compile(msg);
+            } catch (PatternSyntaxException excp) {
+                printErrMsg("Invalid regular expression.");
+                exit();
+            }
+            words = new ArrayList<>();
+        } else if (mode.equals("--substring")) {
+            words = MessageIndex.wholeWords(msg);
+        } else {
+            words = MessageIndex.words(msg);
+        }
+        int[] candidates = words.isEmpty() ? null
+                : MessageIndex.candidates(words);
+        int count = candidates == null ? CommitGraph.size()
+                : candidates.length;
         boolean found = false;
-        File commits = new File("./.gitlet/commits/");
-        Commit existing;
-        for (File file : commits.listFiles()) {
-            String commitID = file.getName().substring(0, UID_LENGTH);
-            existing = Commit.loadCommit(commitID);
-            if (existing.getMessage().equals(msg)) {
+        for (int i = 0; i < count; i += 1) {
+            int pos = candidates == null ? i : candidates[i];
+            String message = CommitGraph.message(pos);
+            boolean matches;
+            if (pattern != null) {
+                matches = pattern.matcher(message).find();
+            } else if (mode.equals("--substring")) {
+                matches = message.contains(msg);
+            } else {
+                matches = message.equals(msg);
+            }
+            if (matches) {
                 found = true;
-                System.out.println(commitID);
+                System.out.println(CommitGraph.commitID(pos));
             }
         }
         if (!found) {
@@ -261,82 +361,70 @@ public class Main {
             }
         }
         status.format("%n");
+        Commit currCommit = branch.getBranchHeadCommitObj(
+                branch.getCurrBranch());
+        stage.syncWithWatcher();
         status.format("=== Modifications Not Staged For Commit ===%n");
-        status.format("%n");
+        status.format("%s%n", modifiedUnstaged(currCommit, stage));
 
         status.format("=== Untracked Files ===%n");
-        status.format("%n");
+        status.format("%s%n", untracked(currCommit, stage));
         System.out.print(status.toString());
+        if (stage.statsChanged()) {
+            stage.storeStage();
+        }
     }
 
     /** Extra Credit part. Returns a String of modified files in
-     *  working directory. Pass in BRANCH and STAGE. */
-    static String modifiedUnstaged(Branch branch, Stage stage) {
+     *  working directory, given the head commit CURRCOMMIT and STAGE. The
+     *  files are hashed together by WorkingFiles, so only files whose
+     *  FileStat changed are read; the new FileStats are kept in STAGE,
+     *  which is worth storing afterwards if its statsChanged. STAGE should
+     *  have synced with the watcher first, if any. */
+    static String modifiedUnstaged(Commit currCommit, Stage stage) {
         Formatter modified = new Formatter();
-        String currBranch = branch.getCurrBranch();
-        Commit currCommit = branch.getBranchHeadCommitObj(currBranch);
-
         Set<String> currCommitFiles = currCommit.getCommittedFiles();
         Set<String> onStage = stage.getOnStageFiles();
 
-        HashSet<String> allModified = new HashSet<>();
-        HashSet<String> allDeleted = new HashSet<>();
-
+        TreeMap<String, String> expected = new TreeMap<>();
         for (String stagedFile : onStage) {
-            File workingVersion = new File(stagedFile);
             if (stage.getAddMapMark(stagedFile)) {
-                if (workingVersion.exists()) {
-                    File stagedVersion = new File("./.gitlet/stage/"
-                            + stage.getOnStageStoredName(stagedFile));
-                    if (!identicalFiles(workingVersion, stagedVersion)) {
-                        allModified.add(stagedFile);
-                    }
-                } else {
-                    allDeleted.add(stagedFile);
-                }
+                expected.put(stagedFile,
+                        stage.getOnStageStoredName(stagedFile));
             }
         }
         for (String commitFile : currCommitFiles) {
-            File workingVersion = new File(commitFile);
-            File commitVersion = new File("./.gitlet/files/"
-                    + currCommit.getStoredCommittedFileName(commitFile));
             if (!onStage.contains(commitFile)) {
-                if (!workingVersion.exists()) {
-                    allDeleted.add(commitFile);
-                } else if (!identicalFiles(workingVersion, commitVersion)) {
-                    allModified.add(commitFile);
-                }
-            } else if (!stage.getRemoveMapMark(commitFile)) {
-                if (!workingVersion.exists()) {
-                    allDeleted.add(commitFile);
-                }
-            } else {
-                continue;
+                expected.put(commitFile,
+                        currCommit.getStoredCommittedFileName(commitFile));
+            } else if (!stage.getRemoveMapMark(commitFile)
+                    && !expected.containsKey(commitFile)) {
+                expected.put(commitFile, null);
             }
         }
-        HashSet<String> all = new HashSet<>(allModified);
-        all.addAll(allDeleted);
-        List<String> sorted = asSortedList(all);
-        for (String file : sorted) {
-            if (allModified.contains(file)) {
-                modified.format("%s (modified)%n", file);
-            } else {
-                modified.format("%s (deleted)%n", file);
+        String[] names = expected.keySet().toArray(new String[0]);
+        String[] hashes = WorkingFiles.hashAll(stage, names);
+        stage.finishFullScan(expected.keySet());
+        for (int i = 0; i < names.length; i += 1) {
+            String version = expected.get(names[i]);
+            if (hashes[i] == null) {
+                modified.format("%s (deleted)%n", names[i]);
+            } else if (version != null && !version.equals(hashes[i])) {
+                modified.format("%s (modified)%n", names[i]);
             }
         }
         return modified.toString();
     }
 
     /** Extra Credit part. Returns a String of untracked files in
-     *  working directory. Pass in BRANCH and STAGE. */
-    static String untracked(Branch branch, Stage stage) {
+     *  working directory, given the head commit CURRCOMMIT and STAGE. The
+     *  whole working directory is walked, skipping what .gitletignore
+     *  ignores. */
+    static String untracked(Commit currCommit, Stage stage) {
         Formatter untracked = new Formatter();
-        String currBranch = branch.getCurrBranch();
-        Commit currBranchCommit = branch.getBranchHeadCommitObj(currBranch);
-        Set<String> currTrackedFiles = currBranchCommit.getCommittedFiles();
-        List<String> plainFiles = plainFilenamesIn(new File("."));
+        Set<String> currTrackedFiles = currCommit.getCommittedFiles();
         Set<String> stagedFiles = stage.getOnStageFiles();
-        for (String fileName : plainFiles) {
+        for (String fileName : WorkingFiles.walk("", IgnoreRules.load())) {
             if ((!currTrackedFiles.contains(fileName)
                     && !stagedFiles.contains(fileName))
                     || stagedFiles.contains(fileName)
@@ -370,7 +458,7 @@ public class Main {
      *  Pass in ARGS from main method.
      *  java gitlet.Main checkout -- [file name]. */
     static void doCheckOutFileNameCase1(String... args) {
-        String fileName = args[2];
+        String fileName = workingName(args[2]);
         Branch branch = Branch.loadBranch();
         String currBranchName = branch.getCurrBranch();
         Commit headCommit = branch.getBranchHeadCommitObj(currBranchName);
@@ -385,21 +473,8 @@ public class Main {
      *  Pass in ARGS from main method.
      *  java gitlet.Main checkout [commit id] -- [file name]. */
     static void doCheckOutCommitFileNameCase2(String... args) {
-        boolean foundCommit = false;
-        String commitID = args[1];
-        String fileName = args[3];
-        if (commitID.length() < UID_LENGTH) {
-            for (File f : new File("./.gitlet/commits/").listFiles()) {
-                if (stringsMatch(f.getName(), commitID)) {
-                    commitID = f.getName().substring(0, UID_LENGTH);
-                    foundCommit = true;
-                }
-            }
-            if (!foundCommit) {
-                printErrMsg("No commit with that id exists.");
-                exit();
-            }
-        }
+        String commitID = resolveCommitID(args[1]);
+        String fileName = workingName(args[3]);
         Commit commit = Commit.loadCommit(commitID);
         if (commit == null) {
             printErrMsg("No commit with that id exists.");
@@ -434,20 +509,15 @@ public class Main {
         Set<String> branchCommittedFiles =
                 branchHeadCommit.getCommittedFiles();
         checkUntrackedFilePresence(branchCommittedFiles, currCommittedFiles);
-        for (String branchFile : branchCommittedFiles) {
-            branchHeadCommit.restoreFileFromFiles(branchFile);
-        }
-        branch.setCurrBranchTo(branchName);
-        for (String currBranchFile : currCommittedFiles) {
-            if (!branchCommittedFiles.contains(currBranchFile)) {
-                restrictedDelete(currBranchFile);
-            }
-        }
-        branch.storeBranch();
-
         Stage stage = Stage.loadStage();
+        stage.syncWithWatcher();
+        switchFiles(currCommit, branchHeadCommit, stage);
+        branch.setCurrBranchTo(branchName);
         stage.clearStageMaps();
+        Journal.begin();
+        branch.storeBranch();
         stage.storeStage();
+        Journal.commit();
     }
 
     /** Handles the Branch command. Pass in ARGS from main method. */
@@ -482,20 +552,7 @@ public class Main {
 
     /** Handles the Reset command. Pass in ARGS from main method. */
     static void doReset(String... args) {
-        boolean foundCommit = false;
-        String commitID = args[1];
-        if (commitID.length() < UID_LENGTH) {
-            for (File f : new File("./.gitlet/commits/").listFiles()) {
-                if (stringsMatch(f.getName(), commitID)) {
-                    commitID = f.getName().substring(0, UID_LENGTH);
-                    foundCommit = true;
-                }
-            }
-            if (!foundCommit) {
-                printErrMsg("No commit with that id exists.");
-                exit();
-            }
-        }
+        String commitID = resolveCommitID(args[1]);
         Branch branch = Branch.loadBranch();
         Commit targetCommit = Commit.loadCommit(commitID);
         if (targetCommit == null) {
@@ -508,22 +565,75 @@ public class Main {
                 branch.getCurrBranch());
         Set<String> headCommitFiles = headCommit.getCommittedFiles();
         checkUntrackedFilePresence(targetCommitFiles, headCommitFiles);
-        for (String targetCommitFile : targetCommitFiles) {
-            targetCommit.restoreFileFromFiles(targetCommitFile);
-        }
-
-        for (String currCommitFile : headCommitFiles) {
-            if (!targetCommitFiles.contains(currCommitFile)) {
-                restrictedDelete(currCommitFile);
-            }
-        }
+        Stage stage = Stage.loadStage();
+        stage.syncWithWatcher();
+        switchFiles(headCommit, targetCommit, stage);
 
         branch.updateBranchHead(branch.getCurrBranch(), commitID);
-        branch.storeBranch();
-
-        Stage stage = Stage.loadStage();
         stage.clearStageMaps();
+        Journal.begin();
+        branch.storeBranch();
         stage.storeStage();
+        Journal.commit();
+    }
+
+    /** Makes the working directory, holding the files of FROMCOMMIT, hold
+     *  those of TOCOMMIT, touching only the files that change. Comparing
+     *  the two trees, so subtrees they share are skipped, gives the files
+     *  to restore and those TOCOMMIT doesn't track, which are deleted after
+     *  the restores, done with WorkingFiles.restoreAll. Any other file of
+     *  TOCOMMIT is only restored if its FileStat kept in STAGE, or hashing
+     *  it, shows it no longer holds that version, so local changes are
+     *  still overwritten. The FileStats of files written are kept in STAGE.
+     *  Reports how many files were touched if it was more than one. */
+    static void switchFiles(Commit fromCommit, Commit toCommit, Stage stage) {
+        long start = System.nanoTime();
+        TreeMap<String, String[]> changes = Tree.diff(
+                fromCommit.getTreeSha(), toCommit.getTreeSha());
+        List<String> restored = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String file = change.getKey();
+            String version = change.getValue()[1];
+            FileStat known = stage.knownStat(file);
+            if (version == null) {
+                deleted.add(file);
+            } else if (!stage.isWatched() || known == null
+                    || !known.hash().equals(version)) {
+                restored.add(file);
+            }
+        }
+        Set<String> tracked = toCommit.getCommittedFiles();
+        List<String> unchanged = new ArrayList<>();
+        for (String file : tracked) {
+            if (!changes.containsKey(file)) {
+                unchanged.add(file);
+            }
+        }
+        String[] names = unchanged.toArray(new String[0]);
+        String[] hashes = WorkingFiles.hashAll(stage, names);
+        for (int i = 0; i < names.length; i += 1) {
+            if (!toCommit.getStoredCommittedFileName(names[i])
+                    .equals(hashes[i])) {
+                restored.add(names[i]);
+            }
+        }
+        String[] written = restored.toArray(new String[0]);
+        FileStat[] stats = WorkingFiles.restoreAll(toCommit, written);
+        for (int i = 0; i < written.length; i += 1) {
+            stage.updateStat(written[i], stats[i]);
+        }
+        for (String file : deleted) {
+            WorkingFiles.delete(file);
+            stage.updateStat(file, null);
+        }
+        if (written.length + deleted.size() > 1) {
+            System.out.printf("Updated %s and deleted %d, leaving %d"
+                    + " untouched, in %.0f ms.%n",
+                    plural(written.length, "file"), deleted.size(),
+                    tracked.size() - written.length,
+                    (System.nanoTime() - start) / 1e6);
+        }
     }
 
     /** Handles the Merge command. Pass in ARGS from main method. */
@@ -564,10 +674,15 @@ public class Main {
                 printErrMsg("Current branch fast-forwarded.");
                 exit();
             }
-            mergeConditions(currHeadCommit, givenHeadCommit, splitPointCommit);
-
+            TreeSet<String> toMerge = new TreeSet<>();
+            TreeMap<String, String> changes = mergeConditions(currHeadCommit,
+                    givenHeadCommit, splitPointCommit, toMerge);
+            if (writeMergeResult(changes, toMerge, splitPointCommit,
+                    currHeadCommit, givenHeadCommit, stage)) {
+                printErrMsg("Encountered a merge conflict.");
+            }
             makeMergeCommit(currHeadCommit, givenHeadCommit, branch,
-                    currBranch, givenBranch);
+                    currBranch, givenBranch, changes, stage);
         } catch (IOException ioe) {
             printErrMsg("Error occurred in doMerge: " + ioe.getMessage());
             exit();
@@ -575,49 +690,58 @@ public class Main {
     }
 
     /** Continues the Merge Checks. Pass in CURRHEADCOMMIT, GIVENHEADCOMMIT,
-     *  SPLITPOINTCOMMIT. Throws FileNotFoundException. */
-    static void mergeConditions(Commit currHeadCommit, Commit givenHeadCommit,
-                                Commit splitPointCommit)
+     *  SPLITPOINTCOMMIT. Returns the changes merging makes to the files of
+     *  CURRHEADCOMMIT, as Tree.update takes them, except for the files both
+     *  branches changed, which are added to TOMERGE. Nothing is written.
+     *  Throws FileNotFoundException. A file the given branch left as it was
+     *  at the split point never needs merging, so only the files where the
+     *  trees of SPLITPOINTCOMMIT and GIVENHEADCOMMIT differ are checked. */
+    static TreeMap<String, String> mergeConditions(Commit currHeadCommit,
+                                                   Commit givenHeadCommit,
+                                                   Commit splitPointCommit,
+                                                   Set<String> toMerge)
             throws FileNotFoundException {
         Set<String> currCommitFiles = currHeadCommit.getCommittedFiles();
         Set<String> givenCommitFiles = givenHeadCommit.getCommittedFiles();
-        Set<String> splitCommitFiles = splitPointCommit.getCommittedFiles();
-        String givenCommitID = givenHeadCommit.getCommitID();
-        boolean encounterConflict = false;
+        TreeMap<String, String> changes = new TreeMap<>();
         checkUntrackedFilePresence(givenCommitFiles, currCommitFiles);
-        for (String file : givenCommitFiles) {
-            String givenVersionOfFile =
-                    givenHeadCommit.getStoredCommittedFileName(file);
+        HashSet<String> changedSinceSplit = new HashSet<>();
+        for (Map.Entry<String, String[]> change : Tree.diff(
+                splitPointCommit.getTreeSha(),
+                givenHeadCommit.getTreeSha()).entrySet()) {
+            String file = change.getKey();
+            String splitVersionOfFile = change.getValue()[0];
+            String givenVersionOfFile = change.getValue()[1];
             String currVersionOfFile =
                     currHeadCommit.getStoredCommittedFileName(file);
-            String splitVersionOfFile =
-                    splitPointCommit.getStoredCommittedFileName(file);
-            if (splitVersionOfFile == null && currVersionOfFile == null) {
-                doCheckOutCommitFileNameCase2("checkout", givenCommitID, "--",
-                        file);
-                doAdd("add", file);
-            } else if (splitVersionOfFile == null && currVersionOfFile != null
-                    && !currVersionOfFile.equals(givenVersionOfFile)) {
-                encounterConflict = true;
-                writeConflictedFile(file, currHeadCommit, givenHeadCommit);
-                doAdd("add", file);
+            if (splitVersionOfFile != null) {
+                changedSinceSplit.add(file);
+            } else if (currVersionOfFile == null) {
+                changes.put(file, givenVersionOfFile);
+            } else if (!currVersionOfFile.equals(givenVersionOfFile)) {
+                addToMerge(file, currVersionOfFile, givenVersionOfFile,
+                        toMerge);
             } else {
                 continue;
             }
         }
-        mergeContinued(splitCommitFiles, currHeadCommit, givenHeadCommit,
-                splitPointCommit, givenCommitID, encounterConflict);
+        mergeContinued(changedSinceSplit, currHeadCommit, givenHeadCommit,
+                splitPointCommit, changes, toMerge);
+        return changes;
     }
 
-    /** Continue Merge Checks, pass in SPLITCOMMITFILES, CURRHEADCOMMIT,
-     *  GIVENHEADCOMMIT, SPLITPOINTCOMMIT, GIVENCOMMITID, ENCOUNTERCONFLICT.
+    /** Continue Merge Checks, pass in CHANGEDFILES, the files of the split
+     *  point the given branch changed or removed, CURRHEADCOMMIT,
+     *  GIVENHEADCOMMIT, SPLITPOINTCOMMIT. Records in CHANGES and TOMERGE
+     *  what merging does to each, as mergeConditions returns them.
      *  Thows FileNotFoundException. */
-    static void mergeContinued(Set<String> splitCommitFiles,
+    static void mergeContinued(Set<String> changedFiles,
                                Commit currHeadCommit,
                                Commit givenHeadCommit, Commit splitPointCommit,
-                               String givenCommitID, boolean encounterConflict)
+                               Map<String, String> changes,
+                               Set<String> toMerge)
             throws FileNotFoundException {
-        for (String file : splitCommitFiles) {
+        for (String file : changedFiles) {
             String givenVersionOfFile =
                     givenHeadCommit.getStoredCommittedFileName(file);
             String currVersionOfFile =
@@ -627,68 +751,134 @@ public class Main {
             if (currVersionOfFile != null && givenVersionOfFile != null) {
                 if (!givenVersionOfFile.equals(splitVersionOfFile)
                         && currVersionOfFile.equals(splitVersionOfFile)) {
-                    doCheckOutCommitFileNameCase2("checkout", givenCommitID,
-                            "--", file);
-                    doAdd("add", file);
+                    changes.put(file, givenVersionOfFile);
                 } else if (!currVersionOfFile.equals(splitVersionOfFile)
                         && givenVersionOfFile.equals(splitVersionOfFile)) {
                     continue;
                 } else if (!currVersionOfFile.equals(givenVersionOfFile)) {
-                    encounterConflict = true;
-                    writeConflictedFile(file, currHeadCommit, givenHeadCommit);
-                    doAdd("add", file);
+                    addToMerge(file, currVersionOfFile, givenVersionOfFile,
+                            toMerge);
                 } else  {
                     continue;
                 }
             } else if (currVersionOfFile != null
                     && givenVersionOfFile == null) {
                 if (currVersionOfFile.equals(splitVersionOfFile)) {
-                    restrictedDelete(file);
+                    changes.put(file, null);
                 } else {
-                    encounterConflict = true;
-                    writeConflictedFile(file, currHeadCommit, givenHeadCommit);
-                    doAdd("add", file);
+                    addToMerge(file, currVersionOfFile, givenVersionOfFile,
+                            toMerge);
                 }
             } else if (currVersionOfFile == null
                     && givenVersionOfFile != null) {
                 if (givenVersionOfFile.equals(splitVersionOfFile)) {
                     continue;
                 } else {
-                    encounterConflict = true;
-                    writeConflictedFile(file, currHeadCommit, givenHeadCommit);
-                    doAdd("add", file);
+                    addToMerge(file, currVersionOfFile, givenVersionOfFile,
+                            toMerge);
                 }
             } else {
                 continue;
             }
         }
-        if (encounterConflict) {
-            printErrMsg("Encountered a merge conflict.");
+    }
+
+    /** Adds FILE, whose versions CURRVERSION and GIVENVERSION were both
+     *  changed since the split point, to TOMERGE. Throws
+     *  FileNotFoundException if neither version is stored. */
+    private static void addToMerge(String file, String currVersion,
+                                   String givenVersion, Set<String> toMerge)
+            throws FileNotFoundException {
+        if (!ObjectStore.contains(currVersion)
+                && !ObjectStore.contains(givenVersion)) {
+            throw new FileNotFoundException("Can't write conflicted");
+        }
+        toMerge.add(file);
+    }
+
+    /** Writes the working files of a merge of GIVENHEADCOMMIT into
+     *  CURRHEADCOMMIT from SPLITPOINTCOMMIT: the version CHANGES maps each
+     *  file to, restored with WorkingFiles.restoreAll, then the merge by
+     *  lines of each file of TOMERGE, in one parallel pass, which is then
+     *  stored and added to CHANGES. Files
+     *  CHANGES maps to null are deleted afterwards, so no directory is
+     *  pruned while files are written into it. Keeps the FileStat of every
+     *  file in STAGE, so the next status doesn't read them. Returns true if
+     *  any file merged by lines has conflicts. */
+    static boolean writeMergeResult(Map<String, String> changes,
+                                    Set<String> toMerge,
+                                    Commit splitPointCommit,
+                                    Commit currHeadCommit,
+                                    Commit givenHeadCommit, Stage stage) {
+        List<String> written = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            (change.getValue() == null ? deleted : written)
+                    .add(change.getKey());
+        }
+        String[] restored = written.toArray(new String[0]);
+        FileStat[] restoredStats = WorkingFiles.restoreAll(givenHeadCommit,
+                restored);
+        for (int i = 0; i < restored.length; i += 1) {
+            stage.updateStat(restored[i], restoredStats[i]);
         }
+        final String[] names = toMerge.toArray(new String[0]);
+        final String[] stored = new String[names.length];
+        final FileStat[] stats = new FileStat[names.length];
+        final boolean[] conflicted = new boolean[names.length];
+        WorkingFiles.forEach(names.length, i -> {
+            File file = new File(names[i]);
+            try {
+                conflicted[i] = writeConflictedFile(names[i],
+                        splitPointCommit, currHeadCommit, givenHeadCommit);
+            } catch (FileNotFoundException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            stored[i] = ObjectStore.storeLoose(file,
+                    new File(ObjectStore.FILES_DIR));
+            FileStat stat = FileStat.of(file);
+            stats[i] = stat == null ? null : stat.withHash(stored[i]);
+        });
+        boolean encounterConflict = false;
+        for (int i = 0; i < names.length; i += 1) {
+            changes.put(names[i], stored[i]);
+            stage.updateStat(names[i], stats[i]);
+            encounterConflict |= conflicted[i];
+        }
+        for (String file : deleted) {
+            WorkingFiles.delete(file);
+            stage.updateStat(file, null);
+        }
+        return encounterConflict;
     }
 
     /** Finishes the entire Merging process and creates a new Special Commit
      *  Object to add to the Head of the active BRANCH, which will be saved.
-     *  The STAGE will be processed, updated and saved as usual. Must pass in
-     *  CURRHEADCOMMIT, GIVENHEADCOMMIT, CURRBRANCH, and GIVENBRANCH. */
+     *  Its files are those of CURRHEADCOMMIT with CHANGES applied, written
+     *  as one Tree. STAGE, holding nothing staged, is saved once. Must pass
+     *  in CURRHEADCOMMIT, GIVENHEADCOMMIT, CURRBRANCH, and GIVENBRANCH. */
     static void makeMergeCommit(Commit currHeadCommit, Commit givenHeadCommit,
                                   Branch branch,
-                                  String currBranch, String givenBranch) {
-        Stage stage = Stage.loadStage();
+                                  String currBranch, String givenBranch,
+                                  Map<String, String> changes, Stage stage) {
         String msg = String.format("Merged %s into %s.", givenBranch,
                 currBranch);
         Commit newCommit = new Commit(currHeadCommit.getCommitID(),
                 givenHeadCommit.getCommitID(), msg);
-        newCommit.processStage(stage);
+        newCommit.updateTree(changes);
         if (Commit.sameCommitContents(newCommit, currHeadCommit)) {
             printErrMsg("No changes added to the commit.");
             exit();
         }
         stage.setLatestCommitID(newCommit.getCommitID());
+        Journal.begin();
         stage.storeStage();
         newCommit.storeCommit();
         branch.updateBranchHead(currBranch, newCommit.getCommitID());
         branch.storeBranch();
+        Journal.commit();
+        CommitGraph.add(newCommit);
+        GarbageCollector.autoRun();
     }
 
     /** Pass in Set of files tracked by the target Commit: TARGETCOMMITFILES,
@@ -707,33 +897,76 @@ public class Main {
         }
     }
 
-    /** Write into FILE when CURRCOMMIT and GIVENCOMMIT run into conflict. */
-    static void writeConflictedFile(String file, Commit currCommit,
-                                    Commit givenCommit)
+    /** Write into FILE when CURRCOMMIT and GIVENCOMMIT both changed it
+     *  since SPLITCOMMIT: the merge of their versions by lines, see
+     *  LineMerge, or both versions whole if any of the three isn't text.
+     *  Returns true if what was written has conflicts. */
+    static boolean writeConflictedFile(String file, Commit splitCommit,
+                                       Commit currCommit, Commit givenCommit)
             throws FileNotFoundException {
-        File currCommitVersion = new File("./.gitlet/files/"
-                + currCommit.getStoredCommittedFileName(file));
-        File givenCommitVersion = new File("./.gitlet/files/"
-                + givenCommit.getStoredCommittedFileName(file));
+        String currCommitVersion = currCommit.getStoredCommittedFileName(file);
+        String givenCommitVersion =
+                givenCommit.getStoredCommittedFileName(file);
         File workingFile = new File(file);
-        if (!currCommitVersion.exists() && !givenCommitVersion.exists()) {
+        if (!ObjectStore.contains(currCommitVersion)
+                && !ObjectStore.contains(givenCommitVersion)) {
             throw new FileNotFoundException("Can't write conflicted");
         }
-        byte[] line = "\n".getBytes(StandardCharsets.UTF_8);
-        byte[] currVersionContents, givenVersionContents;
-        if (currCommitVersion.exists()) {
-            currVersionContents = readContents(currCommitVersion);
-        } else {
-            currVersionContents = new byte[] {};
+        try {
+            byte[] base = textVersion(
+                    splitCommit.getStoredCommittedFileName(file));
+            byte[] ours = textVersion(currCommitVersion);
+            byte[] theirs = textVersion(givenCommitVersion);
+            if (workingFile.getParentFile() != null) {
+                workingFile.getParentFile().mkdirs();
+            }
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(workingFile),
+                    Compression.BUFFER_SIZE)) {
+                if (base != null && ours != null && theirs != null) {
+                    return LineMerge.merge(base, ours, theirs, out) > 0;
+                }
+                writeWholeConflict(currCommitVersion, givenCommitVersion,
+                        out);
+                return true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        if (givenCommitVersion.exists()) {
-            givenVersionContents = readContents(givenCommitVersion);
-        } else {
-            givenVersionContents = new byte[] {};
+    }
+
+    /** Writes to OUT the versions stored under CURRCOMMITVERSION and
+     *  GIVENCOMMITVERSION as one conflict. */
+    private static void writeWholeConflict(String currCommitVersion,
+                                           String givenCommitVersion,
+                                           OutputStream out)
+            throws IOException {
+        out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        copyVersion(currCommitVersion, out);
+        out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+        copyVersion(givenCommitVersion, out);
+        out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the contents of the object stored under STOREDNAME for
+     *  LineMerge, which are empty if STOREDNAME is null or names no
+     *  object, or null if they aren't text. */
+    private static byte[] textVersion(String storedName) throws IOException {
+        if (storedName == null || !ObjectStore.contains(storedName)) {
+            return new byte[0];
+        }
+        return LineMerge.readText(storedName);
+    }
+
+    /** Streams the contents of the object stored under STOREDNAME to OUT,
+     *  or nothing if there is no such object. */
+    private static void copyVersion(String storedName, OutputStream out)
+            throws IOException {
+        if (ObjectStore.contains(storedName)) {
+            try (InputStream in = ObjectStore.open(storedName)) {
+                Compression.copy(in, out);
+            }
         }
-        writeContents(workingFile, "<<<<<<< HEAD", line,
-                currVersionContents, "=======", line,
-                givenVersionContents, ">>>>>>>", line);
     }
 
     /** Created for testing and other uses. Deletes the entire .gitlet/
@@ -756,6 +989,97 @@ public class Main {
 
     }
 
+    /** Handles the Repack command, which folds the loose objects in
+     *  /.gitlet/files/ into the pack. Pass in ARGS from main method. */
+    static void doRepack(String... args) {
+        ObjectStore.repack(Commit.storedNameHints());
+    }
+
+    /** Handles the Gc command, which removes unreachable commits and
+     *  objects and repacks the rest. Pass in ARGS from main method. */
+    static void doGc(String... args) {
+        System.out.println(GarbageCollector.run());
+    }
+
+    /** Handles the Watch command, which runs a Watcher until stopped so
+     *  status and checkout only look at files that changed. Pass in ARGS
+     *  from main method. */
+    static void doWatch(String... args) {
+        Watcher.run();
+    }
+
+    /** Handles the Serve command, which runs a Server until stopped so
+     *  glet runs commands without starting a JVM for each. Pass in ARGS
+     *  from main method. */
+    static void doServe(String... args) {
+        Server.run();
+    }
+
+    /** Handles the Config command. With a KEY, prints its value; with a
+     *  KEY and VALUE, changes the setting. Pass in ARGS from main method. */
+    static void doConfig(String... args) {
+        String key = args[1];
+        if (!Config.isKnown(key)) {
+            printErrMsg("No such setting exists.");
+            exit();
+        }
+        if (args.length == 2) {
+            String value = Config.get(key, null);
+            if (value != null) {
+                System.out.println(value);
+            }
+            return;
+        }
+        try {
+            Config.validate(key, args[2]);
+        } catch (IllegalArgumentException iae) {
+            printErrMsg(iae.getMessage());
+            exit();
+        }
+        Config.set(key, args[2]);
+    }
+
+    /** Handles the Rev-parse command, which prints the full ID of the
+     *  commit named by a branch name or an abbreviated commit ID. Pass in
+     *  ARGS from main method. */
+    static void doRevParse(String... args) {
+        Branch branch = Branch.loadBranch();
+        if (branch.getAllBranches().contains(args[1])) {
+            System.out.println(branch.getBranchHeadCommitID(args[1]));
+        } else {
+            System.out.println(resolveCommitID(args[1]));
+        }
+    }
+
+    /** Returns ARG, a file named on the command line, as the name gitlet
+     *  tracks it by, or as it is if it is outside the working directory,
+     *  so it is reported as not tracked. */
+    static String workingName(String arg) {
+        String name = WorkingFiles.relativePath(arg);
+        return name == null ? arg : name;
+    }
+
+    /** Returns the full ID of the commit whose ID starts with COMMITID,
+     *  found through the CommitIndex. Full IDs are returned as they are.
+     *  Exits if no commit or more than one commit matches. */
+    static String resolveCommitID(String commitID) {
+        if (commitID.length() >= UID_LENGTH) {
+            return commitID;
+        }
+        List<String> matches = CommitIndex.resolve(commitID);
+        if (matches.isEmpty()) {
+            printErrMsg("No commit with that id exists.");
+            exit();
+        } else if (matches.size() > 1) {
+            printErrMsg("Ambiguous commit id, it could be any of:");
+            for (String match : matches) {
+                printErrMsg(match);
+            }
+            exit();
+        }
+        return matches.get(0);
+    }
+
     /** A brief check of number of ARGS that are passed into main method,
      *  along with very basic syntax check. */
     static void quickOperationCheck(String... args) {
@@ -773,19 +1097,40 @@ public class Main {
         }
         switch (args[0]) {
         case "init": case "log": case "global-log": case "status":
+        case "repack": case "gc": case "watch": case "serve":
             if (!(len == 1)) {
                 printErrMsg("Incorrect operands.");
                 exit();
             }
             break;
-        case "add": case "rm": case "find": case "branch":
+        case "rm": case "branch":
         case "rm-branch": case "reset": case "merge": case "delete":
-        case "commit":
+        case "commit": case "rev-parse":
             if (!(len == 2)) {
                 printErrMsg("Incorrect operands.");
                 exit();
             }
             break;
+        case "add":
+            if (len < 2) {
+                printErrMsg("Incorrect operands.");
+                exit();
+            }
+            break;
+        case "find":
+            if (len < 2 || len > 3 || (len == 3
+                    && !args[1].equals("--substring")
+                    && !args[1].equals("--regex"))) {
+                printErrMsg("Incorrect operands.");
+                exit();
+            }
+            break;
+        case "config":
+            if (len < 2 || len > 3) {
+                printErrMsg("Incorrect operands.");
+                exit();
+            }
+            break;
         case "checkout":
             if (len < 2 || len > 4
                     || (len == 3 && !args[1].equals("--"))
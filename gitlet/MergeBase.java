@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/** Finds the split point of two commits: their best common ancestor,
+ *  following both parents of merge commits. Starting from the two heads,
+ *  commits are visited in decreasing order of generation number (from the
+ *  CommitGraph), each carrying a flag for every head it can be reached
+ *  from. A commit's generation is larger than all its ancestors', so by
+ *  the time a commit is visited every descendant that could pass it a
+ *  flag has been visited, and the first commit visited with both flags is
+ *  a common ancestor no other common ancestor descends from. The walk
+ *  stops there. Ties between commits of equal generation go to the one
+ *  added to the graph last, so the answer doesn't depend on the order of
+ *  the heads.
+ *
+ *  The merge base of two commits never changes, so answers are kept in
+ *  /.gitlet/merge-bases, one "HEAD HEAD BASE" line per pair of heads, and
+ *  looked up before walking.
+ *  @author Max Yao
+ */
+class MergeBase {
+
+    /** The file holding remembered merge bases. */
+    static final File MEMO_FILE = new File("./.gitlet/merge-bases");
+
+    /** Flag of commits reachable from the first head. */
+    private static final int FIRST = 1;
+
+    /** Flag of commits reachable from the second head. */
+    private static final int SECOND = 2;
+
+    /** Remembered merge bases keyed by pairKey, or null before they are
+     *  read. */
+    private static HashMap<String, String> memo;
+
+    /** Returns the ID of the split point of the commits ONE and TWO, or
+     *  null if they share no history. */
+    static String find(String one, String two) {
+        if (one.equals(two)) {
+            return one;
+        }
+        String key = pairKey(one, two);
+        String base = loadMemo().get(key);
+        if (base == null) {
+            int pos = walk(CommitGraph.position(one),
+                    CommitGraph.position(two));
+            if (pos == CommitGraph.NONE) {
+                return null;
+            }
+            base = CommitGraph.commitID(pos);
+            remember(key, base);
+        }
+        return base;
+    }
+
+    /** Returns the position of the best common ancestor of the commits at
+     *  ONE and TWO, or CommitGraph.NONE if there is none. */
+    private static int walk(int one, int two) {
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            int cmp = Integer.compare(CommitGraph.generation(b),
+                    CommitGraph.generation(a));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        flags.put(one, FIRST);
+        flags.put(two, SECOND);
+        queue.add(one);
+        queue.add(two);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int flag = flags.get(pos);
+            if (flag == (FIRST | SECOND)) {
+                return pos;
+            }
+            for (int parent : new int[] {CommitGraph.parent(pos),
+                    CommitGraph.givenParent(pos)}) {
+                if (parent == CommitGraph.NONE) {
+                    continue;
+                }
+                Integer old = flags.get(parent);
+                if (old == null) {
+                    flags.put(parent, flag);
+                    queue.add(parent);
+                } else if ((old | flag) != old) {
+                    flags.put(parent, old | flag);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Returns the memo key of the heads ONE and TWO, the same in either
+     *  order. */
+    private static String pairKey(String one, String two) {
+        return one.compareTo(two) < 0 ? one + " " + two : two + " " + one;
+    }
+
+    /** Returns the remembered merge bases, reading MEMO_FILE on first
+     *  use. */
+    private static HashMap<String, String> loadMemo() {
+        if (memo == null) {
+            memo = new HashMap<>();
+            if (MEMO_FILE.isFile()) {
+                try (BufferedReader in =
+                             new BufferedReader(new FileReader(MEMO_FILE))) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        int split = line.lastIndexOf(' ');
+                        if (split > 0) {
+                            memo.put(line.substring(0, split),
+                                    line.substring(split + 1));
+                        }
+                    }
+                } catch (IOException excp) {
+                    memo.clear();
+                }
+            }
+        }
+        return memo;
+    }
+
+    /** Remembers BASE as the merge base of the heads in KEY. If MEMO_FILE
+     *  can't be written it is dropped, and rebuilt by later merges. */
+    private static void remember(String key, String base) {
+        memo.put(key, base);
+        try (Writer out = new FileWriter(MEMO_FILE, true)) {
+            out.write(key + " " + base + "\n");
+        } catch (IOException excp) {
+            MEMO_FILE.delete();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/** An index from the words of commit messages to the CommitGraph
+ *  positions of the commits using them, so find only has to read the
+ *  messages of commits that can match. A word is a run of letters and
+ *  digits, compared ignoring case, so the index only narrows the search
+ *  and every candidate is still checked against its message.
+ *
+ *  The index is /.gitlet/message-index: a header of MAGIC, VERSION, the
+ *  number of commits covered and the number of sorted entries, then the
+ *  entries. An entry is a long holding the hash code of a word in its high
+ *  half and a position in its low half. The first entries are sorted and
+ *  searched by bisection; entries for new commits are appended after them
+ *  unsorted, and folded into the sorted part once there are more than
+ *  MIN_TAIL of them and an eighth of the sorted ones. If the index doesn't
+ *  cover exactly the commits of the graph it is rebuilt.
+ *  @author Max Yao
+ */
+class MessageIndex {
+
+    /** The file holding the index. */
+    static final File INDEX_FILE = new File("./.gitlet/message-index");
+
+    /** Magic number of the index file, "GLMI". */
+    private static final int MAGIC = 0x474c4d49;
+
+    /** Version of the index file written by this version of gitlet. */
+    private static final int VERSION = 1;
+
+    /** Length of the header. */
+    private static final int HEADER_BYTES = 16;
+
+    /** Offset of the number of commits covered in the header. */
+    private static final int COVERED_OFFSET = 8;
+
+    /** Length of an entry. */
+    private static final int ENTRY_BYTES = 8;
+
+    /** Number of unsorted entries always tolerated. */
+    private static final int MIN_TAIL = 1024;
+
+    /** Returns the distinct words of TEXT, lowercased, in order. */
+    static List<String> words(String text) {
+        LinkedHashSet<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inWord = i < text.length()
+                    && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /** Returns the words of the substring QUERY that must appear whole in
+     *  any message containing it: those that don't touch either end of
+     *  QUERY, where they might be part of a longer word. */
+    static List<String> wholeWords(String query) {
+        int start = 0;
+        int end = query.length();
+        while (start < end
+                && Character.isLetterOrDigit(query.charAt(start))) {
+            start += 1;
+        }
+        while (end > start
+                && Character.isLetterOrDigit(query.charAt(end - 1))) {
+            end -= 1;
+        }
+        return words(query.substring(start, end));
+    }
+
+    /** Returns the positions, in increasing order, of the commits whose
+     *  messages contain every one of WORDS, ignoring case. WORDS must not
+     *  be empty. */
+    static int[] candidates(List<String> words) {
+        ByteBuffer index = load();
+        int[] result = null;
+        for (String word : words) {
+            int[] positions = lookup(index, word.hashCode());
+            result = result == null ? positions
+                    : intersect(result, positions);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Adds the commit at POS, whose message is MESSAGE, to the index. The
+     *  index must cover exactly the commits before POS; if it doesn't, it is
+     *  rebuilt instead. */
+    static void add(int pos, String message) {
+        if (!INDEX_FILE.isFile()
+                || (INDEX_FILE.length() - HEADER_BYTES) % ENTRY_BYTES != 0) {
+            rebuild();
+            return;
+        }
+        boolean appended = false;
+        long sorted = 0;
+        long tail = 0;
+        try (RandomAccessFile file = new RandomAccessFile(INDEX_FILE, "rw")) {
+            if (file.readInt() == MAGIC && file.readInt() == VERSION
+                    && file.readInt() == pos) {
+                sorted = file.readInt();
+                List<String> words = words(message);
+                ByteBuffer entries =
+                        ByteBuffer.allocate(words.size() * ENTRY_BYTES);
+                for (String word : words) {
+                    entries.putLong(entry(word.hashCode(), pos));
+                }
+                file.seek(file.length());
+                file.write(entries.array());
+                file.seek(COVERED_OFFSET);
+                file.writeInt(pos + 1);
+                tail = (file.length() - HEADER_BYTES) / ENTRY_BYTES - sorted;
+                appended = true;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!appended) {
+            rebuild();
+        } else if (tail > MIN_TAIL && tail > sorted / 8) {
+            compact();
+        }
+    }
+
+    /** Deletes the index, which is rebuilt when next needed. */
+    static void clear() {
+        INDEX_FILE.delete();
+    }
+
+    /** Rewrites the index from the messages of every commit in the
+     *  CommitGraph. */
+    static void rebuild() {
+        int commits = CommitGraph.size();
+        long[] entries = new long[0];
+        int count = 0;
+        for (int pos = 0; pos < commits; pos += 1) {
+            for (String word : words(CommitGraph.message(pos))) {
+                if (count == entries.length) {
+                    entries = Arrays.copyOf(entries,
+                            Math.max(1024, 2 * count));
+                }
+                entries[count] = entry(word.hashCode(), pos);
+                count += 1;
+            }
+        }
+        write(commits, Arrays.copyOf(entries, count));
+    }
+
+    /** Sorts every entry of the index into its sorted part. */
+    private static void compact() {
+        ByteBuffer index = load();
+        int commits = index.getInt(COVERED_OFFSET);
+        LongBuffer all = entries(index);
+        long[] entries = new long[all.remaining()];
+        all.get(entries);
+        write(commits, entries);
+    }
+
+    /** Replaces the index with ENTRIES, covering COMMITS commits, sorted
+     *  first. */
+    private static void write(int commits, long[] entries) {
+        Arrays.sort(entries);
+        ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES
+                + entries.length * ENTRY_BYTES);
+        data.putInt(MAGIC).putInt(VERSION).putInt(commits)
+                .putInt(entries.length);
+        data.asLongBuffer().put(entries);
+        data.rewind();
+        File temp = new File(INDEX_FILE.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the mapped index, rebuilding it first unless it covers
+     *  exactly the commits of the CommitGraph. */
+    private static ByteBuffer load() {
+        for (int attempt = 0; attempt < 2; attempt += 1) {
+            if (INDEX_FILE.isFile()) {
+                try (FileChannel channel = FileChannel.open(
+                        INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer index = channel.map(
+                            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (index.limit() >= HEADER_BYTES
+                            && index.getInt(0) == MAGIC
+                            && index.getInt(4) == VERSION
+                            && index.getInt(COVERED_OFFSET)
+                            == CommitGraph.size()) {
+                        return index;
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            rebuild();
+        }
+        throw new IllegalArgumentException("Cannot build message index");
+    }
+
+    /** Returns every entry of INDEX, sorted ones first. */
+    private static LongBuffer entries(ByteBuffer index) {
+        ByteBuffer body = index.duplicate();
+        body.position(HEADER_BYTES);
+        body.limit(HEADER_BYTES + (index.limit() - HEADER_BYTES)
+                / ENTRY_BYTES * ENTRY_BYTES);
+        return body.slice().asLongBuffer();
+    }
+
+    /** Returns the positions in INDEX of the word hashing to HASH, in
+     *  increasing order. */
+    private static int[] lookup(ByteBuffer index, int hash) {
+        LongBuffer entries = entries(index);
+        int sorted = index.getInt(COVERED_OFFSET + 4);
+        long first = entry(hash, 0);
+        int lo = 0;
+        int hi = sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid) < first) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int[] positions = new int[16];
+        int count = 0;
+        for (int i = lo; i < entries.limit(); i += 1) {
+            long entry = entries.get(i);
+            if ((int) (entry >> 32) != hash) {
+                if (i < sorted) {
+                    i = sorted - 1;
+                }
+                continue;
+            }
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * count);
+            }
+            positions[count] = (int) entry;
+            count += 1;
+        }
+        Arrays.sort(positions, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i += 1) {
+            if (distinct == 0 || positions[i] != positions[distinct - 1]) {
+                positions[distinct] = positions[i];
+                distinct += 1;
+            }
+        }
+        return Arrays.copyOf(positions, distinct);
+    }
+
+    /** Returns the positions found in both of the increasing arrays A and
+     *  B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[count] = a[i];
+                count += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /** Returns the entry of the word hashing to HASH at POS. */
+    private static long entry(int hash, int pos) {
+        return ((long) hash << 32) | (pos & 0xffffffffL);
+    }
+}
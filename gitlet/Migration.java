@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+
+import static gitlet.Utils.*;
+
+/** One-shot upgrades of the layout of an existing /.gitlet/ directory.
+ *  The layout version of a repository is kept in its core.format setting;
+ *  repositories made before that setting existed are at version 0. Every
+ *  command but init runs upgrade first, which brings the repository up to
+ *  CURRENT_FORMAT one version at a time and then records the new version,
+ *  so each upgrade runs exactly once.
+ *  @author Max Yao
+ */
+class Migration {
+
+    /** The layout version written by this version of gitlet. */
+    static final int CURRENT_FORMAT = 4;
+
+    /** Brings the repository in the current directory up to
+     *  CURRENT_FORMAT. */
+    static void upgrade() {
+        int format = Config.getInt(Config.FORMAT, 0);
+        if (format >= CURRENT_FORMAT) {
+            return;
+        }
+        if (format < 1) {
+            dropFileNamesFromStoredNames();
+        }
+        if (format < 2) {
+            convertCommitsToTrees();
+        }
+        if (format < 3) {
+            rewriteSerializedRecords();
+        }
+        if (format < 4) {
+            addHeadersToRawObjects(new File(ObjectStore.FILES_DIR));
+            addHeadersToRawObjects(new File("./.gitlet/stage/"));
+        }
+        Config.set(Config.FORMAT, Integer.toString(CURRENT_FORMAT));
+    }
+
+    /** Upgrade to format 1. Stored names used to be
+     *  [SHA-1 String]--[file title].[file type]; they are now the SHA-1
+     *  String alone. Renames the loose objects in /.gitlet/files/ and
+     *  /.gitlet/stage/, dropping duplicates, and rewrites the stored names
+     *  held by every commit and by the stage. */
+    private static void dropFileNamesFromStoredNames() {
+        renameLegacyObjects(new File(ObjectStore.FILES_DIR));
+        renameLegacyObjects(new File("./.gitlet/stage/"));
+        for (File file : new File("./.gitlet/commits/").listFiles()) {
+            Commit commit = Commit.loadCommit(
+                    file.getName().substring(0, UID_LENGTH));
+            boolean changed = false;
+            for (String committed
+                    : new ArrayList<>(commit.getCommittedFiles())) {
+                String storedName =
+                        commit.getStoredCommittedFileName(committed);
+                if (storedName.length() > UID_LENGTH) {
+                    commit.updateoNameVSnName(committed,
+                            storedName.substring(0, UID_LENGTH));
+                    changed = true;
+                }
+            }
+            if (changed) {
+                commit.storeCommit();
+            }
+        }
+        Stage stage = Stage.loadStage();
+        for (String staged : new ArrayList<>(stage.getOnStageFiles())) {
+            String storedName = stage.getOnStageStoredName(staged);
+            if (storedName.length() > UID_LENGTH) {
+                stage.updateOnStage(staged,
+                        storedName.substring(0, UID_LENGTH));
+            }
+        }
+        stage.storeStage();
+    }
+
+    /** Upgrade to format 2. Commits used to hold a HashMap of all their
+     *  files; they now hold the hash of a Tree. Converts every commit,
+     *  sharing the tree nodes of files that didn't change. */
+    private static void convertCommitsToTrees() {
+        for (File file : new File("./.gitlet/commits/").listFiles()) {
+            Commit commit = Commit.loadCommit(
+                    file.getName().substring(0, UID_LENGTH));
+            if (commit.getTreeSha() == null) {
+                commit.convertToTree();
+                commit.storeCommit();
+            }
+        }
+    }
+
+    /** Upgrade to format 3. Commits, the Stage and the Branch used to be
+     *  stored with Java serialization; they are now RecordIO records.
+     *  Rewrites every one that is still serialized. */
+    private static void rewriteSerializedRecords() {
+        try {
+            for (File file : new File("./.gitlet/commits/").listFiles()) {
+                if (RecordIO.isSerialized(file)) {
+                    Commit.loadCommit(file.getName().substring(0,
+                            UID_LENGTH)).storeCommit();
+                }
+            }
+            Stage.loadStage().storeStage();
+            Branch.loadBranch().storeBranch();
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Trouble upgrading records: "
+                    + ioe.getMessage());
+        }
+    }
+
+    /** Upgrade to format 4. Loose objects stored uncompressed, or before
+     *  compression existed, used to have no Compression header, so one
+     *  whose contents began like a header was read wrongly. Gives every
+     *  such object in DIR a header. They are told apart from objects with
+     *  a header by their hash, which is that of the file as it is, so
+     *  what they hold never decides it. */
+    private static void addHeadersToRawObjects(File dir) {
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+            if (name.length() != UID_LENGTH || !ObjectStore.isStoredName(name)
+                    || !sha1(file).equals(name)) {
+                continue;
+            }
+            try {
+                File temp = File.createTempFile("incoming", ".tmp", dir);
+                try (InputStream in = new FileInputStream(file)) {
+                    Compression.writeLoose(in, temp, Compression.NONE);
+                }
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ioe) {
+                throw new IllegalArgumentException("Trouble upgrading "
+                        + "objects: " + ioe.getMessage());
+            }
+        }
+    }
+
+    /** Renames every object in DIR stored as [SHA-1 String]--[name] to
+     *  its SHA-1 String, deleting it instead if that name is taken. */
+    private static void renameLegacyObjects(File dir) {
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+            if (name.length() > UID_LENGTH
+                    && ObjectStore.isStoredName(name)) {
+                File renamed = new File(dir, name.substring(0, UID_LENGTH));
+                if (renamed.exists()) {
+                    file.delete();
+                } else {
+                    file.renameTo(renamed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,874 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** The object store that holds every committed version of every file.
+ *  Objects are addressed by content only: an object's stored name is the
+ *  SHA-1 String of its contents, and file names live solely in the
+ *  commits, so identical contents are stored once however many files,
+ *  names or branches share them. An object is first written as a loose
+ *  file in /.gitlet/files/ named by its stored name. The repack command
+ *  later folds loose objects into /.gitlet/pack/objects.pack, a single
+ *  append-only pack file, and rewrites /.gitlet/pack/objects.idx, a sorted
+ *  index keyed by the SHA-1 content hash. Lookups always try the loose file
+ *  first and then binary search the index; both the index and the pack are
+ *  read through memory-mapped FileChannels.
+ *
+ *  Each pack entry starts with a type byte, whose low four bits are the
+ *  kind of entry and whose high four bits are the Compression codec of the
+ *  rest of the entry. A FULL entry is followed by the contents of the
+ *  object. A DELTA entry is followed by the hash of its base object and a
+ *  Delta against that base. Loose objects and FULL entries are decoded as
+ *  streams, so restoring them never holds a whole file in memory.
+ *
+ *  When packing, a new object is stored as a delta against the latest
+ *  packed object committed under the same file name, unless that would
+ *  make the chain longer than MAX_DEPTH or the delta isn't at least half
+ *  the size of the object. Reconstructed objects
+ *  are kept in a small LRU cache so that restoring many versions along the
+ *  same chain doesn't rebuild the shared bases over and over.
+ *
+ *  objects.idx layout: a header (magic, version), a 256 entry fanout table
+ *  where entry i counts the objects whose first hash byte is at most i, and
+ *  then one fixed-width record per object in hash order: 20 hash bytes,
+ *  the offset and length of its entry in the pack, the hash code of its
+ *  file name and its depth in a delta chain.
+ *  @author Max Yao
+ */
+class ObjectStore {
+
+    /** Directory holding loose objects. */
+    static final String FILES_DIR = "./.gitlet/files/";
+
+    /** Directory holding the pack and its index. */
+    static final String PACK_DIR = "./.gitlet/pack/";
+
+    /** The append-only pack file. */
+    static final File PACK_FILE = new File(PACK_DIR + "objects.pack");
+
+    /** The sorted index into PACK_FILE. */
+    static final File INDEX_FILE = new File(PACK_DIR + "objects.idx");
+
+    /** Longest chain of deltas allowed between an object and a FULL
+     *  entry. */
+    static final int MAX_DEPTH = 50;
+
+    /** Objects larger than this are always stored as FULL entries. */
+    static final int MAX_DELTA_SIZE = 128 << 20;
+
+    /** Total size of the reconstructed objects kept in the cache. */
+    static final int CACHE_BYTES = 64 << 20;
+
+    /** Total size of the objects kept in the cache of read. */
+    static final int BLOB_CACHE_BYTES = 16 << 20;
+
+    /** Magic number at the start of the pack, "GLPK". */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Magic number at the start of the index, "GLIX". */
+    private static final int INDEX_MAGIC = 0x474c4958;
+
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 2;
+
+    /** Bytes of magic number and version heading both files. */
+    private static final int HEADER_BYTES = 8;
+
+    /** Number of entries in the fanout table. */
+    private static final int FANOUT_ENTRIES = 256;
+
+    /** Length of a raw SHA-1 hash. */
+    private static final int HASH_BYTES = 20;
+
+    /** Length of one index record: hash, offset, length, name hash code
+     *  and depth. */
+    private static final int RECORD_BYTES = HASH_BYTES + 24;
+
+    /** Position of the first index record. */
+    private static final int RECORDS_START =
+            HEADER_BYTES + 4 * FANOUT_ENTRIES;
+
+    /** Name hash code of objects that aren't known to be any file. */
+    private static final int NO_NAME = 0;
+
+    /** Kind of a pack entry holding a whole object. */
+    private static final int FULL = 1;
+
+    /** Kind of a pack entry holding a delta. */
+    private static final int DELTA = 2;
+
+    /** The mapped index, or null if it has not been mapped yet. */
+    private static MappedByteBuffer index;
+
+    /** The FileStat of the index file from just before it was mapped. */
+    private static FileStat indexStat;
+
+    /** Objects rebuilt from deltas, keyed by pack offset. */
+    private static final LruCache<Long, byte[]> CACHE =
+            new LruCache<>(CACHE_BYTES, data -> data.length);
+
+    /** Contents of objects returned by read, keyed by stored name. Stored
+     *  names are hashes of the contents, so entries never go stale. */
+    static final LruCache<String, byte[]> BLOBS =
+            new LruCache<>(BLOB_CACHE_BYTES, data -> data.length);
+
+    /** The location of one object in the pack. */
+    private static class PackEntry {
+        /** Hexadecimal content hash. */
+        private final String hash;
+        /** Offset of the entry in the pack. */
+        private final long offset;
+        /** Length of the entry in the pack. */
+        private final long length;
+        /** Hash code of a file name the object was committed as. */
+        private final int nameHash;
+        /** Number of deltas between this object and a FULL entry. */
+        private final int depth;
+
+        /** An entry for HASH at OFFSET of LENGTH bytes, stored under a
+         *  name hashing to NAMEHASH, DEPTH deltas from a FULL entry. */
+        PackEntry(String hash, long offset, long length, int nameHash,
+                  int depth) {
+            this.hash = hash;
+            this.offset = offset;
+            this.length = length;
+            this.nameHash = nameHash;
+            this.depth = depth;
+        }
+    }
+
+    /** Returns true if an object stored under STOREDNAME exists, either
+     *  as a loose file or inside the pack. */
+    static boolean contains(String storedName) {
+        if (storedName == null) {
+            return false;
+        }
+        return looseFile(storedName).isFile()
+                || findRecord(hashOf(storedName)) >= 0;
+    }
+
+    /** Returns the contents of the object stored under STOREDNAME, which
+     *  are shared through BLOBS and must not be changed. Throws
+     *  IllegalArgumentException if there is no such object. */
+    static byte[] read(String storedName) {
+        byte[] cached = BLOBS.get(storedName);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            byte[] contents = Compression.readAll(open(storedName));
+            BLOBS.put(storedName, contents);
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the object stored under
+     *  STOREDNAME. Throws IllegalArgumentException if there is no such
+     *  object. */
+    static InputStream open(String storedName) throws IOException {
+        File loose = looseFile(storedName);
+        if (loose.isFile()) {
+            return Compression.openLoose(loose);
+        }
+        int record = findRecord(hashOf(storedName));
+        if (record < 0) {
+            throw new IllegalArgumentException("No object stored as "
+                    + storedName);
+        }
+        try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            PackEntry entry = recordAt(record);
+            MappedByteBuffer region = pack.map(
+                    FileChannel.MapMode.READ_ONLY, entry.offset,
+                    entry.length);
+            int type = region.get();
+            if ((type & 0xf) == FULL) {
+                return Compression.decode(new RegionInputStream(region),
+                        type >> 4);
+            }
+            return new ByteArrayInputStream(readEntry(pack, entry, null));
+        }
+    }
+
+    /** Writes the contents of the object stored under STOREDNAME to DEST,
+     *  creating or overwriting it, and its directories, as needed.
+     *  Uncompressed objects are copied with FileChannel.transferTo; all
+     *  others are streamed, so no whole file is held in memory. */
+    static void restore(String storedName, File dest) {
+        if (dest.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        if (dest.getParentFile() != null) {
+            dest.getParentFile().mkdirs();
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            File loose = looseFile(storedName);
+            if (loose.isFile()
+                    && Compression.looseCodec(loose) == Compression.NONE) {
+                try (FileChannel in = FileChannel.open(loose.toPath(),
+                        StandardOpenOption.READ)) {
+                    transferFully(in, Compression.HEADER_BYTES,
+                            in.size() - Compression.HEADER_BYTES, out);
+                }
+                return;
+            }
+            int record = loose.isFile() ? -1 : findRecord(hashOf(storedName));
+            if (record >= 0) {
+                PackEntry entry = recordAt(record);
+                try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(),
+                        StandardOpenOption.READ)) {
+                    ByteBuffer type = ByteBuffer.allocate(1);
+                    pack.read(type, entry.offset);
+                    if (type.get(0) == FULL) {
+                        transferFully(pack, entry.offset + 1,
+                                entry.length - 1, out);
+                        return;
+                    }
+                }
+            }
+            try (InputStream in = open(storedName)) {
+                Compression.copy(in, Channels.newOutputStream(out));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the contents of SOURCE into the directory DIR as a loose
+     *  object, compressed with the configured codec, and returns its
+     *  stored name. SOURCE is read once, in chunks, and hashed while it is
+     *  copied to a temporary file, which is then renamed to the stored
+     *  name, or dropped if those contents are already in DIR or the
+     *  object store. */
+    static String storeLoose(File source, File dir) {
+        MessageDigest md = sha1Digest();
+        File temp;
+        try {
+            temp = File.createTempFile("incoming", ".tmp", dir);
+            try (InputStream in = new DigestInputStream(
+                    new FileInputStream(source), md)) {
+                Compression.writeLoose(in, temp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String storedName = bytesToHex(md.digest());
+        File dest = new File(dir, storedName);
+        if (dest.exists() || contains(storedName)) {
+            temp.delete();
+        } else if (!temp.renameTo(dest)) {
+            temp.delete();
+            throw new IllegalArgumentException("Cannot store " + source);
+        } else {
+            Journal.written(dest);
+        }
+        return storedName;
+    }
+
+    /** Stores DATA as a loose object unless an object with the same
+     *  contents is already stored, and returns its stored name. Like
+     *  storeLoose, it is written to a temporary file first, so a loose
+     *  object is never seen half written. */
+    static String writeObject(byte[] data) {
+        String storedName = sha1(data);
+        if (!contains(storedName)) {
+            File loose = looseFile(storedName);
+            try {
+                File temp = File.createTempFile("incoming", ".tmp",
+                        new File(FILES_DIR));
+                Compression.writeLoose(new ByteArrayInputStream(data), temp);
+                if (!temp.renameTo(loose)) {
+                    temp.delete();
+                    if (!loose.exists()) {
+                        throw new IllegalArgumentException("Cannot store "
+                                + storedName);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Journal.written(loose);
+        }
+        return storedName;
+    }
+
+    /** Appends every loose object that isn't already packed to the pack,
+     *  rewrites the index and deletes the loose files. Loose objects are
+     *  packed oldest first, so each version can be stored as a delta
+     *  against the one before it. NAMEHINTS maps stored names to a file name
+     *  each object was committed as; objects are only deltified against
+     *  objects of the same file name. Returns the number of loose objects
+     *  that were folded in. */
+    static int repack(Map<String, String> nameHints) {
+        File[] looseFiles = new File(FILES_DIR).listFiles();
+        if (looseFiles == null || looseFiles.length == 0) {
+            return 0;
+        }
+        Arrays.sort(looseFiles, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                int cmp = Long.compare(f1.lastModified(), f2.lastModified());
+                return cmp != 0 ? cmp : f1.getName().compareTo(f2.getName());
+            }
+        });
+        TreeMap<String, PackEntry> entries = readIndexEntries();
+        HashMap<Integer, PackEntry> latest = new HashMap<>();
+        for (PackEntry entry : entries.values()) {
+            noteLatest(latest, entry);
+        }
+        List<File> folded = new ArrayList<>();
+        new File(PACK_DIR).mkdirs();
+        try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long end = pack.size();
+            if (end == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+                writeFully(pack, header, 0);
+                end = HEADER_BYTES;
+            } else {
+                checkPackHeader(pack);
+            }
+            for (File loose : looseFiles) {
+                if (!isStoredName(loose.getName())) {
+                    continue;
+                }
+                String hash = loose.getName().substring(0, UID_LENGTH);
+                if (!entries.containsKey(hash)) {
+                    int nameHash = nameHash(nameHints.get(hash));
+                    PackEntry entry;
+                    if (Compression.looseSize(loose) > MAX_DELTA_SIZE) {
+                        entry = appendLoose(pack, end, hash, nameHash, loose);
+                    } else {
+                        entry = appendObject(pack, end, hash, nameHash,
+                                Compression.readAll(
+                                        Compression.openLoose(loose)),
+                                entries, latest);
+                    }
+                    entries.put(hash, entry);
+                    noteLatest(latest, entry);
+                    end += entry.length;
+                }
+                folded.add(loose);
+            }
+            pack.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(entries);
+        for (File loose : folded) {
+            loose.delete();
+        }
+        return folded.size();
+    }
+
+    /** Writes DATA, the contents of HASH stored under a name hashing to
+     *  NAMEHASH, at position END of PACK, as a delta against the latest
+     *  object of the same name in LATEST when that pays off. ENTRIES holds
+     *  every object packed so far. Returns the new entry. */
+    private static PackEntry appendObject(FileChannel pack, long end,
+                                          String hash, int nameHash,
+                                          byte[] data,
+                                          Map<String, PackEntry> entries,
+                                          Map<Integer, PackEntry> latest)
+            throws IOException {
+        PackEntry base = nameHash == NO_NAME ? null : latest.get(nameHash);
+        if (base != null && data.length <= MAX_DELTA_SIZE) {
+            byte[] baseData = readEntry(pack, base, entries);
+            if (baseData.length <= MAX_DELTA_SIZE) {
+                byte[] delta = Delta.create(baseData, data);
+                if (delta.length < data.length / 2) {
+                    byte[] compressed = Compression.compress(delta);
+                    int type = DELTA;
+                    if (compressed != null) {
+                        delta = compressed;
+                        type |= Compression.DEFLATE << 4;
+                    }
+                    ByteBuffer buf = ByteBuffer.allocate(
+                            1 + HASH_BYTES + delta.length);
+                    buf.put((byte) type).put(hexToBytes(base.hash));
+                    buf.put(delta).flip();
+                    writeFully(pack, buf, end);
+                    CACHE.put(end, data);
+                    return new PackEntry(hash, end, buf.limit(), nameHash,
+                            base.depth + 1);
+                }
+            }
+        }
+        ByteBuffer buf = fullEntry(data);
+        writeFully(pack, buf, end);
+        return new PackEntry(hash, end, buf.limit(), nameHash, 0);
+    }
+
+    /** Returns a FULL pack entry holding DATA, ready to be written. */
+    private static ByteBuffer fullEntry(byte[] data) {
+        byte[] payload = Compression.compress(data);
+        int type = FULL;
+        if (payload != null) {
+            type |= Compression.DEFLATE << 4;
+        } else {
+            payload = data;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + payload.length);
+        buf.put((byte) type).put(payload).flip();
+        return buf;
+    }
+
+    /** Returns the hashes of every packed object. */
+    static Set<String> packedObjects() {
+        return readIndexEntries().keySet();
+    }
+
+    /** Rewrites the pack and its index without the objects whose hashes
+     *  are in DROP. Kept entries are copied as they are, except deltas
+     *  whose base is dropped, which are rebuilt and stored whole. The new
+     *  pack and index are written to temporary files and moved over the
+     *  old ones as one Journal group, so a crash can never leave the old
+     *  index pointing into the new pack. Returns the number of objects
+     *  dropped. */
+    static int dropPacked(Set<String> drop) {
+        TreeMap<String, PackEntry> entries = readIndexEntries();
+        List<PackEntry> kept = new ArrayList<>();
+        for (PackEntry entry : entries.values()) {
+            if (!drop.contains(entry.hash)) {
+                kept.add(entry);
+            }
+        }
+        if (kept.size() == entries.size()) {
+            return 0;
+        }
+        kept.sort(new Comparator<PackEntry>() {
+            @Override
+            public int compare(PackEntry e1, PackEntry e2) {
+                return Long.compare(e1.offset, e2.offset);
+            }
+        });
+        TreeMap<String, PackEntry> keptEntries = new TreeMap<>();
+        File temp;
+        File indexTemp;
+        try {
+            temp = Journal.createTemp();
+            indexTemp = Journal.createTemp();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileChannel pack = FileChannel.open(PACK_FILE.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+            writeFully(out, header, 0);
+            long end = HEADER_BYTES;
+            for (PackEntry entry : kept) {
+                ByteBuffer buf = pack.map(FileChannel.MapMode.READ_ONLY,
+                        entry.offset, entry.length);
+                int depth = entry.depth;
+                if ((buf.get(0) & 0xf) == DELTA
+                        && drop.contains(baseHash(buf))) {
+                    buf = fullEntry(readEntry(pack, entry, entries));
+                    depth = 0;
+                }
+                int length = buf.limit();
+                writeFully(out, buf, end);
+                keptEntries.put(entry.hash, new PackEntry(entry.hash, end,
+                        length, entry.nameHash, depth));
+                end += length;
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            indexTemp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(keptEntries, indexTemp);
+        try {
+            Journal.begin();
+            Journal.replace(temp, PACK_FILE);
+            Journal.replace(indexTemp, INDEX_FILE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.commit();
+        forgetIndex();
+        clearCache();
+        return entries.size() - kept.size();
+    }
+
+    /** Returns the hexadecimal hash of the base of the DELTA entry
+     *  ENTRY. */
+    private static String baseHash(ByteBuffer entry) {
+        byte[] hash = new byte[HASH_BYTES];
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            hash[i] = entry.get(1 + i);
+        }
+        return bytesToHex(hash);
+    }
+
+    /** Writes the loose object LOOSE, the contents of HASH stored under a
+     *  name hashing to NAMEHASH, at position END of PACK as a FULL entry.
+     *  Its compressed contents are copied as they are with
+     *  FileChannel.transferTo, so objects too large to deltify never have
+     *  to fit in memory. Returns the new entry. */
+    private static PackEntry appendLoose(FileChannel pack, long end,
+                                         String hash, int nameHash,
+                                         File loose) throws IOException {
+        int codec = Compression.looseCodec(loose);
+        long start = Compression.HEADER_BYTES;
+        ByteBuffer type = ByteBuffer.allocate(1);
+        type.put((byte) (FULL | codec << 4)).flip();
+        writeFully(pack, type, end);
+        try (FileChannel in = FileChannel.open(loose.toPath(),
+                StandardOpenOption.READ)) {
+            long length = in.size() - start;
+            long position = end + 1;
+            while (length > 0) {
+                long n = pack.transferFrom(in.position(start), position,
+                        length);
+                if (n <= 0) {
+                    throw new IOException("Truncated object " + hash);
+                }
+                start += n;
+                position += n;
+                length -= n;
+            }
+            return new PackEntry(hash, end, position - end, nameHash, 0);
+        }
+    }
+
+    /** Copies COUNT bytes of IN, starting at POSITION, to OUT. */
+    private static void transferFully(FileChannel in, long position,
+                                      long count, FileChannel out)
+            throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, count - done, out);
+            if (n <= 0) {
+                throw new IOException("Truncated object");
+            }
+            done += n;
+        }
+    }
+
+    /** Records ENTRY in LATEST as the newest candidate base for its name,
+     *  if its chain can still grow. */
+    private static void noteLatest(Map<Integer, PackEntry> latest,
+                                   PackEntry entry) {
+        PackEntry current = latest.get(entry.nameHash);
+        if (entry.nameHash != NO_NAME && entry.depth < MAX_DEPTH
+                && (current == null || current.offset < entry.offset)) {
+            latest.put(entry.nameHash, entry);
+        }
+    }
+
+    /** Returns the contents of the object in ENTRY of PACK, rebuilding it
+     *  from its delta base if needed. Bases are looked up in ENTRIES, or in
+     *  the index if ENTRIES is null. */
+    private static byte[] readEntry(FileChannel pack, PackEntry entry,
+                                    Map<String, PackEntry> entries)
+            throws IOException {
+        byte[] cached = CACHE.get(entry.offset);
+        if (cached != null) {
+            return cached;
+        }
+        MappedByteBuffer region = pack.map(FileChannel.MapMode.READ_ONLY,
+                entry.offset, entry.length);
+        int type = region.get();
+        if ((type & 0xf) == FULL) {
+            return Compression.readAll(Compression.decode(
+                    new RegionInputStream(region), type >> 4));
+        } else if ((type & 0xf) != DELTA) {
+            throw new IllegalArgumentException("Corrupted pack entry");
+        }
+        byte[] baseHash = new byte[HASH_BYTES];
+        region.get(baseHash);
+        PackEntry baseEntry;
+        if (entries != null) {
+            baseEntry = entries.get(bytesToHex(baseHash));
+        } else {
+            baseEntry = recordAt(findRecord(baseHash));
+        }
+        ByteBuffer delta = region;
+        if (type >> 4 != Compression.NONE) {
+            delta = ByteBuffer.wrap(Compression.readAll(Compression.decode(
+                    new RegionInputStream(region), type >> 4)));
+        }
+        byte[] result = Delta.apply(readEntry(pack, baseEntry, entries),
+                delta);
+        CACHE.put(entry.offset, result);
+        return result;
+    }
+
+    /** Empties the cache of objects rebuilt from deltas, whose offsets
+     *  change with every repack. */
+    static void clearCache() {
+        CACHE.clear();
+    }
+
+    /** Returns the loose file for STOREDNAME. */
+    private static File looseFile(String storedName) {
+        return new File(FILES_DIR + storedName);
+    }
+
+    /** Returns true if NAME starts with a full hexadecimal SHA-1 string,
+     *  as the names of stored objects do. */
+    static boolean isStoredName(String name) {
+        if (name.length() < UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i += 1) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the raw content hash embedded in STOREDNAME. */
+    private static byte[] hashOf(String storedName) {
+        return hexToBytes(storedName.substring(0, UID_LENGTH));
+    }
+
+    /** Returns the hash code of FILENAME, or NO_NAME if it is null. */
+    private static int nameHash(String fileName) {
+        return fileName == null ? NO_NAME : fileName.hashCode();
+    }
+
+    /** Throws IllegalArgumentException unless PACK starts with a header
+     *  of the current version. */
+    private static void checkPackHeader(FileChannel pack) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        pack.read(header, 0);
+        if (header.getInt(0) != PACK_MAGIC || header.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported pack format");
+        }
+    }
+
+    /** Forgets the mapped index, and the objects reconstructed from the
+     *  pack, if the index file changed since it was mapped, so a process
+     *  running many commands sees repacks done by other processes. Every
+     *  repack replaces the index file. */
+    static synchronized void forgetIfChanged() {
+        if (index != null && !FileStat.unchanged(INDEX_FILE, indexStat)) {
+            index = null;
+            clearCache();
+        }
+    }
+
+    /** Returns the mapped index, mapping it first if necessary. Returns
+     *  null if the repository has never been packed. Threads storing files
+     *  in parallel may get here at once. */
+    private static synchronized ByteBuffer loadIndex() {
+        if (index == null && INDEX_FILE.isFile()) {
+            indexStat = FileStat.of(INDEX_FILE);
+            try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (mapped.getInt(0) != INDEX_MAGIC
+                        || mapped.getInt(4) != VERSION) {
+                    throw new IllegalArgumentException(
+                            "Unsupported pack index format");
+                }
+                index = mapped;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /** Returns the number of the index record for HASH, or -1 if HASH
+     *  isn't packed. */
+    private static int findRecord(byte[] hash) {
+        ByteBuffer idx = loadIndex();
+        if (idx == null) {
+            return -1;
+        }
+        int first = hash[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(HEADER_BYTES + 4 * (first - 1));
+        int hi = idx.getInt(HEADER_BYTES + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareHash(idx, RECORDS_START + mid * RECORD_BYTES,
+                    hash);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the hash stored in IDX at POS with HASH, as unsigned
+     *  bytes. */
+    private static int compareHash(ByteBuffer idx, int pos, byte[] hash) {
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            int cmp = (idx.get(pos + i) & 0xff) - (hash[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns index RECORD as a PackEntry. Throws IllegalArgumentException
+     *  if RECORD is negative, meaning a lookup failed. */
+    private static PackEntry recordAt(int record) {
+        if (record < 0) {
+            throw new IllegalArgumentException("Missing object in pack");
+        }
+        ByteBuffer idx = loadIndex();
+        int pos = RECORDS_START + record * RECORD_BYTES;
+        byte[] hash = new byte[HASH_BYTES];
+        for (int b = 0; b < HASH_BYTES; b += 1) {
+            hash[b] = idx.get(pos + b);
+        }
+        pos += HASH_BYTES;
+        return new PackEntry(bytesToHex(hash), idx.getLong(pos),
+                idx.getLong(pos + 8), idx.getInt(pos + 16),
+                idx.getInt(pos + 20));
+    }
+
+    /** Returns all index records keyed by hexadecimal hash. */
+    private static TreeMap<String, PackEntry> readIndexEntries() {
+        TreeMap<String, PackEntry> entries = new TreeMap<>();
+        ByteBuffer idx = loadIndex();
+        if (idx == null) {
+            return entries;
+        }
+        int count = idx.getInt(HEADER_BYTES + 4 * (FANOUT_ENTRIES - 1));
+        for (int i = 0; i < count; i += 1) {
+            PackEntry entry = recordAt(i);
+            entries.put(entry.hash, entry);
+        }
+        return entries;
+    }
+
+    /** Writes ENTRIES, keyed by hexadecimal hash, as the new index. The
+     *  index is written beside the old one and then moved over it. */
+    private static void writeIndex(TreeMap<String, PackEntry> entries) {
+        File temp = new File(PACK_DIR + "objects.idx.tmp");
+        writeIndex(entries, temp);
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        forgetIndex();
+    }
+
+    /** Forgets the mapped index, so the next lookup maps it again. */
+    private static synchronized void forgetIndex() {
+        index = null;
+    }
+
+    /** Writes the index of ENTRIES, keyed by hexadecimal hash, to FILE. */
+    private static void writeIndex(TreeMap<String, PackEntry> entries,
+                                   File file) {
+        ByteBuffer out = ByteBuffer.allocate(RECORDS_START
+                + entries.size() * RECORD_BYTES);
+        out.putInt(INDEX_MAGIC).putInt(VERSION);
+        int[] fanout = new int[FANOUT_ENTRIES];
+        for (String hash : entries.keySet()) {
+            fanout[Integer.parseInt(hash.substring(0, 2), 16)] += 1;
+        }
+        int running = 0;
+        for (int count : fanout) {
+            running += count;
+            out.putInt(running);
+        }
+        for (PackEntry entry : entries.values()) {
+            out.put(hexToBytes(entry.hash));
+            out.putLong(entry.offset).putLong(entry.length);
+            out.putInt(entry.nameHash).putInt(entry.depth);
+        }
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, out, 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer. */
+    private static class RegionInputStream extends InputStream {
+        /** The bytes left to read. */
+        private final ByteBuffer region;
+
+        /** A stream reading what remains of REGION. */
+        RegionInputStream(ByteBuffer region) {
+            this.region = region;
+        }
+
+        @Override
+        public int read() {
+            return region.hasRemaining() ? region.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!region.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, region.remaining());
+            region.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Writes all of BUF to CHANNEL starting at POSITION. */
+    private static void writeFully(FileChannel channel, ByteBuffer buf,
+                                   long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
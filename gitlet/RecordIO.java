@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** The binary format of the Commit, Stage and Branch records kept in
+ *  /.gitlet/. A record starts with a four byte MAGIC naming its kind and a
+ *  VERSION byte, followed by its fields in a fixed order. Strings are a
+ *  varint byte length followed by UTF-8 bytes, SHA-1 Strings are their 20
+ *  raw bytes, and maps are a varint count followed by their entries.
+ *
+ *  Repositories made before this format stored the same records with Java
+ *  serialization; those files are still recognized by their stream header
+ *  so Migration can read and rewrite them.
+ *  @author Max Yao
+ */
+class RecordIO {
+
+    /** Magic number of a Commit record, "GLCM". */
+    static final int COMMIT = 0x474c434d;
+
+    /** Magic number of a Stage record, "GLST". */
+    static final int STAGE = 0x474c5354;
+
+    /** Magic number of a Branch record, "GLBR". */
+    static final int BRANCH = 0x474c4252;
+
+    /** The record version written by this version of gitlet. Readers accept
+     *  any version up to it. */
+    static final int VERSION = 1;
+
+    /** The first two bytes of a Java serialization stream. */
+    private static final int SERIALIZED_MAGIC = 0xaced;
+
+    /** Length of a raw SHA-1 hash. */
+    private static final int HASH_BYTES = 20;
+
+    /** Size of the buffers used for records. */
+    private static final int BUFFER_SIZE = 8 << 10;
+
+    /** Returns a stream writing a record of kind MAGIC to FILE, with the
+     *  header already written. */
+    static DataOutputStream createRecord(File file, int magic)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE));
+        out.writeInt(magic);
+        out.writeByte(VERSION);
+        return out;
+    }
+
+    /** Returns a stream reading the fields of the record of kind MAGIC in
+     *  FILE, past its header. Throws IOException if FILE holds another kind
+     *  of record or a newer version. */
+    static DataInputStream openRecord(File file, int magic)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE));
+        try {
+            readHeader(in, magic);
+        } catch (IOException excp) {
+            in.close();
+            throw excp;
+        }
+        return in;
+    }
+
+    /** Reads a record header of kind MAGIC from IN. Throws IOException if
+     *  IN holds another kind of record or a newer version. */
+    static void readHeader(DataInputStream in, int magic) throws IOException {
+        if (in.readInt() != magic) {
+            throw new IOException("unrecognized record");
+        }
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw new IOException("record version " + version
+                    + " is newer than this gitlet");
+        }
+    }
+
+    /** Returns true if IN, which must support mark, has nothing left, so
+     *  fields added to the end of a record can be read only when
+     *  present. */
+    static boolean atEnd(DataInputStream in) throws IOException {
+        in.mark(1);
+        boolean end = in.read() < 0;
+        in.reset();
+        return end;
+    }
+
+    /** Returns true if FILE was written with Java serialization. */
+    static boolean isSerialized(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            int high = in.read();
+            int low = in.read();
+            return ((high << 8) | low) == SERIALIZED_MAGIC;
+        }
+    }
+
+    /** Returns the object Java serialization stored in FILE. */
+    static Object readSerialized(File file)
+            throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            return in.readObject();
+        }
+    }
+
+    /** Writes the non-negative VALUE to OUT in seven bit groups, lowest
+     *  first. */
+    static void writeVarInt(DataOutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Returns a varint read from IN. */
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupted record");
+    }
+
+    /** Writes the String S to OUT. */
+    static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns a String read from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the SHA-1 String HASH to OUT. */
+    static void writeHash(DataOutputStream out, String hash)
+            throws IOException {
+        out.write(hexToBytes(hash));
+    }
+
+    /** Returns a SHA-1 String read from IN. */
+    static String readHash(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[HASH_BYTES];
+        in.readFully(bytes);
+        return bytesToHex(bytes);
+    }
+
+    /** Writes HASH, a SHA-1 String or null, to OUT. */
+    static void writeOptionalHash(DataOutputStream out, String hash)
+            throws IOException {
+        out.writeBoolean(hash != null);
+        if (hash != null) {
+            writeHash(out, hash);
+        }
+    }
+
+    /** Returns a SHA-1 String or null read from IN. */
+    static String readOptionalHash(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readHash(in) : null;
+    }
+
+    /** Writes MAP, whose values are SHA-1 Strings, to OUT. */
+    static void writeHashMap(DataOutputStream out, Map<String, String> map)
+            throws IOException {
+        writeVarInt(out, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeHash(out, entry.getValue());
+        }
+    }
+
+    /** Returns a map whose values are SHA-1 Strings read from IN. */
+    static HashMap<String, String> readHashMap(DataInputStream in)
+            throws IOException {
+        int size = readVarInt(in);
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i += 1) {
+            map.put(readString(in), readHash(in));
+        }
+        return map;
+    }
+
+    /** Writes MAP, whose values are marks, to OUT. */
+    static void writeMarkMap(DataOutputStream out, Map<String, Boolean> map)
+            throws IOException {
+        writeVarInt(out, map.size());
+        for (Map.Entry<String, Boolean> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeBoolean(entry.getValue());
+        }
+    }
+
+    /** Returns a map whose values are marks read from IN. */
+    static HashMap<String, Boolean> readMarkMap(DataInputStream in)
+            throws IOException {
+        int size = readVarInt(in);
+        HashMap<String, Boolean> map = new HashMap<>();
+        for (int i = 0; i < size; i += 1) {
+            map.put(readString(in), in.readBoolean());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import static gitlet.Utils.*;
+
+/** The serve command: a process that stays up and runs the commands of
+ *  the glet script itself, so they don't each pay for starting a JVM,
+ *  loading classes and filling caches. Caches of files that commands
+ *  change, such as the CommitGraph, Config and pack index, are dropped
+ *  before each command if their file changed; see forgetChanged.
+ *
+ *  While it runs the server holds an exclusive lock on
+ *  /.gitlet/server/lock and listens on a loopback port, written with a
+ *  random token to /.gitlet/server/address as "PORT TOKEN", readable only
+ *  by its owner. A client connects to the port and sends, each followed by
+ *  a zero byte, the token, the number of arguments and the arguments. The
+ *  server runs them as Main.main would, one command at a time, and answers
+ *  with a line "CODE OUTLENGTH ERRLENGTH", giving the exit code and the
+ *  lengths of the standard output and standard error, then exactly those
+ *  bytes of each, so the client never has to rely on how much a tool
+ *  reads ahead to split them. If anything goes wrong, the client can run
+ *  the command itself, as glet does.
+ *  @author Max Yao
+ */
+class Server {
+
+    /** Directory holding the lock and the address. */
+    static final File SERVER_DIR = new File("./.gitlet/server/");
+
+    /** The file locked by a running server. */
+    static final File LOCK_FILE = new File(SERVER_DIR, "lock");
+
+    /** The file holding the port and token of a running server. */
+    static final File ADDRESS_FILE = new File(SERVER_DIR, "address");
+
+    /** Longest a client may take to send a command. */
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    /** Most arguments a command is accepted with. */
+    private static final int MAX_ARGS = 1 << 16;
+
+    /** Number of random bytes in a token. */
+    private static final int TOKEN_BYTES = 16;
+
+    /** Exit code of a command that threw, as the java launcher gives. */
+    private static final int CRASH_CODE = 1;
+
+    /** Thrown by Utils.exit while a command runs in a server, so the
+     *  server stays up. It is an Error so no command catches it. */
+    static class Exit extends Error {
+        /** serialVersionUID, as Throwable is Serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** An Exit, which needs no stack trace. */
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** True while a command runs in this process as a server. */
+    private static boolean serving;
+
+    /** Returns true if a command runs in a server, so exit must not stop
+     *  the process. */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /** Runs a server for the repository in the current directory until
+     *  the process is stopped or the repository deleted. Exits at once if
+     *  another server already runs. */
+    static void run() {
+        SERVER_DIR.mkdir();
+        try (FileChannel lock = FileChannel.open(LOCK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             ServerSocket socket = new ServerSocket(0, 0,
+                     InetAddress.getLoopbackAddress())) {
+            if (tryLock(lock) == null) {
+                printErrMsg("A server is already running.");
+                exit();
+            }
+            byte[] token = new byte[TOKEN_BYTES];
+            new SecureRandom().nextBytes(token);
+            writeAddress(socket.getLocalPort(), bytesToHex(token));
+            Runtime.getRuntime().addShutdownHook(
+                    new Thread(ADDRESS_FILE::delete));
+            System.out.println("Serving on port " + socket.getLocalPort());
+            while (new File("./.gitlet/").isDirectory()) {
+                try (Socket client = socket.accept()) {
+                    client.setSoTimeout(READ_TIMEOUT_MILLIS);
+                    serve(client, token);
+                } catch (SocketTimeoutException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads a command from CLIENT and, if it came with TOKEN, in hex,
+     *  runs it and sends back its exit code and output. Commands that never
+     *  end are left to the client, which gets no answer. */
+    private static void serve(Socket client, byte[] token)
+            throws IOException {
+        InputStream in = new BufferedInputStream(client.getInputStream());
+        if (!MessageDigest.isEqual(bytesToHex(token).getBytes(
+                StandardCharsets.UTF_8), readField(in))) {
+            return;
+        }
+        int argc;
+        try {
+            argc = Integer.parseInt(new String(readField(in),
+                    StandardCharsets.UTF_8));
+        } catch (NumberFormatException excp) {
+            return;
+        }
+        if (argc < 0 || argc > MAX_ARGS) {
+            return;
+        }
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i += 1) {
+            args[i] = new String(readField(in), StandardCharsets.UTF_8);
+        }
+        if (argc > 0 && (args[0].equals("serve") || args[0].equals("watch"))) {
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int code = runCommand(args, out, err);
+        OutputStream reply = client.getOutputStream();
+        reply.write(String.format("%d %d %d%n", code, out.size(),
+                err.size()).getBytes(StandardCharsets.UTF_8));
+        out.writeTo(reply);
+        err.writeTo(reply);
+        reply.flush();
+    }
+
+    /** Runs the command ARGS as Main.main would, writing what it prints to
+     *  OUT and ERR, and returns its exit code. */
+    private static int runCommand(String[] args, OutputStream out,
+                                  OutputStream err) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream capturedOut = new PrintStream(out, true);
+        PrintStream capturedErr = new PrintStream(err, true);
+        System.setOut(capturedOut);
+        System.setErr(capturedErr);
+        serving = true;
+        int code = 0;
+        try {
+            forgetChanged();
+            Main.main(args);
+        } catch (Exit excp) {
+            code = 0;
+        } catch (Throwable excp) {
+            capturedErr.print("Exception in thread \"main\" ");
+            excp.printStackTrace(capturedErr);
+            code = CRASH_CODE;
+        } finally {
+            Journal.finish();
+            serving = false;
+            capturedOut.flush();
+            capturedErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        return code;
+    }
+
+    /** Drops what this process keeps in memory of files that changed
+     *  since it was read, by this process or any other. Caches of objects
+     *  named by their hash, which never change, are kept. */
+    private static void forgetChanged() {
+        CommitGraph.forgetIfChanged();
+        Config.forgetIfChanged();
+        ObjectStore.forgetIfChanged();
+    }
+
+    /** Returns the bytes from IN up to the next zero byte, which is
+     *  consumed. Throws IOException if IN ends first. */
+    private static byte[] readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        for (int b = in.read(); b != 0; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Command ended early");
+            }
+            field.write(b);
+        }
+        return field.toByteArray();
+    }
+
+    /** Replaces ADDRESS_FILE with PORT and TOKEN, readable only by the
+     *  owner. */
+    private static void writeAddress(int port, String token)
+            throws IOException {
+        File temp = new File(SERVER_DIR, "address.tmp");
+        temp.delete();
+        try {
+            Files.createFile(temp.toPath(),
+                    PosixFilePermissions.asFileAttribute(
+                            PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException excp) {
+            temp.createNewFile();
+        }
+        writeContents(temp, port + " " + token + "\n");
+        Files.move(temp.toPath(), ADDRESS_FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -2,13 +2,14 @@ package gitlet;
 
 import java.io.Serializable;
 import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import static gitlet.Utils.*;
@@ -22,6 +23,13 @@ import static gitlet.Utils.*;
  *  commands. A file is considered "Marked" if its Value is true.
  *  After each commit and those commands that clears the Stage,
  *  the two HashMaps will be cleared and latestCommitID will be updated.
+ *  It is stored as a RecordIO record; it stays Serializable only so the
+ *  Stage of an older repository can be read. The record ends with the
+ *  FileStat of every working file hashed so far, which lets add, and the
+ *  checks for modified files, skip reading files whose stat data hasn't
+ *  changed. Records written before it existed simply end earlier. After
+ *  the FileStats comes the token of the watcher state they were last
+ *  brought up to date with, if any; see Watcher.
  *  @author Max Yao
  */
 public class Stage implements Serializable {
@@ -47,6 +55,25 @@ public class Stage implements Serializable {
      * and which commit is synced with the current directory. */
     private String latestCommitID;
 
+    /** The FileStat of each working file hashed so far, by file name, or
+     *  null until first used. */
+    private transient HashMap<String, FileStat> stats;
+
+    /** True if stats changed since this Stage was loaded. */
+    private transient boolean statsChanged;
+
+    /** The token of the watcher state stats were last brought up to date
+     *  with, or null. */
+    private transient String watchToken;
+
+    /** True if a watcher vouched that no file with a FileStat changed
+     *  since it was taken, so they can be trusted without a stat call. */
+    private transient boolean watched;
+
+    /** The token to adopt once every file is checked, if a watcher is
+     *  running but can't tell what changed since watchToken, or null. */
+    private transient String pendingToken;
+
     /** The single Stage object that will be created to keep track all
      *  working directory files for commands. */
     protected Stage() {
@@ -56,6 +83,46 @@ public class Stage implements Serializable {
         latestCommitID = "7fedecda468132e9e388e8062758daa7e8ad1ba9";
     }
 
+    /** Reads a Stage from IN, positioned past the header of its record. */
+    private Stage(DataInputStream in) throws IOException {
+        latestCommitID = RecordIO.readHash(in);
+        addMap = RecordIO.readMarkMap(in);
+        removeMap = RecordIO.readMarkMap(in);
+        onStage = RecordIO.readHashMap(in);
+        stats = new HashMap<>();
+        if (!RecordIO.atEnd(in)) {
+            int size = RecordIO.readVarInt(in);
+            for (int i = 0; i < size; i += 1) {
+                stats.put(RecordIO.readString(in), FileStat.decode(in));
+            }
+        }
+        if (!RecordIO.atEnd(in)) {
+            watchToken = RecordIO.readString(in);
+        }
+    }
+
+    /** Returns the Stage read from IN, positioned past the header of its
+     *  record. */
+    static Stage decode(DataInputStream in) throws IOException {
+        return new Stage(in);
+    }
+
+    /** Writes the fields of this Stage's record to OUT. */
+    void encode(DataOutputStream out) throws IOException {
+        RecordIO.writeHash(out, latestCommitID);
+        RecordIO.writeMarkMap(out, addMap);
+        RecordIO.writeMarkMap(out, removeMap);
+        RecordIO.writeHashMap(out, onStage);
+        RecordIO.writeVarInt(out, stats().size());
+        for (Map.Entry<String, FileStat> entry : stats().entrySet()) {
+            RecordIO.writeString(out, entry.getKey());
+            entry.getValue().encode(out);
+        }
+        if (watchToken != null) {
+            RecordIO.writeString(out, watchToken);
+        }
+    }
+
 
     /** Updates the latestCommitID with NEWCMTID. */
     void setLatestCommitID(String newCmtID) {
@@ -146,7 +213,7 @@ public class Stage implements Serializable {
         for (String file : getAddMapFiles()) {
             if (getAddMapMark(file)
                     && latestCommit.getCommittedFiles().contains(file)
-                    && storedFileName(new File(file)).equals(
+                    && workingHash(file).equals(
                             latestCommit.getStoredCommittedFileName(file))) {
                 removeFileFromStageMaps(file);
                 return true;
@@ -155,16 +222,104 @@ public class Stage implements Serializable {
         return false;
     }
 
-    /** Saving a copy of FILE to /.gitlet/stage/ under the name specified by
-     *  storedFileName. Namely: [SHA-1 String]--[file title].[file type]. */
-    void saveFileToStage(String file) {
-        try {
-            File destinationFile = new File(String.format("./.gitlet/stage/%s",
-                    storedFileName(new File(file))));
-            writeContents(destinationFile, readContents(new File(file)));
-        } catch (IllegalArgumentException iae) {
-            System.out.printf("An IAE occurred %s%n", iae.getMessage());
+    /** Saves a copy of FILE to /.gitlet/stage/, unless the same contents
+     *  are already stored or staged, and returns its stored name. FILE is
+     *  read once, hashed as it is copied, and the copy is compressed with
+     *  the repository's configured codec. No Stage is touched, so several
+     *  threads can do it at once. Throws IllegalArgumentException if FILE
+     *  can't be read. */
+    static String storeCopy(File file) {
+        return ObjectStore.storeLoose(file, new File("./.gitlet/stage/"));
+    }
+
+    /** Returns the SHA-1 of the contents of the working file FILENAME, or
+     *  null if it isn't a plain file. The file is only read if its
+     *  FileStat no longer matches the one kept when it was last hashed. */
+    String workingHash(String fileName) {
+        FileStat current = FileStat.refresh(new File(fileName),
+                knownStat(fileName));
+        updateStat(fileName, current);
+        return current == null ? null : current.hash();
+    }
+
+    /** Returns the FileStat kept for FILENAME, or null. */
+    FileStat knownStat(String fileName) {
+        return stats().get(fileName);
+    }
+
+    /** Keeps CURRENT, which may be null if the file is gone, as the
+     *  FileStat of FILENAME. */
+    void updateStat(String fileName, FileStat current) {
+        FileStat known = current == null ? stats().remove(fileName)
+                : stats().put(fileName, current);
+        statsChanged |= known != current;
+    }
+
+
+    /** Returns true if the FileStats kept changed since this Stage was
+     *  loaded, so it should be stored even if nothing was staged. */
+    boolean statsChanged() {
+        return statsChanged;
+    }
+
+    /** Asks a running watcher what changed since the FileStats were last
+     *  brought up to date with it, and drops the FileStat of every changed
+     *  file, and every file under a changed directory, so the rest can be
+     *  trusted as they are. If no watcher answers, nothing changes. If one
+     *  does but can't tell, its token is only adopted by finishFullScan. */
+    void syncWithWatcher() {
+        Watcher.Changes changes = Watcher.changesSince(watchToken);
+        if (changes == null) {
+            return;
         }
+        if (!changes.complete) {
+            pendingToken = changes.token;
+            return;
+        }
+        Iterator<String> names = stats().keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            for (String path = name; path != null;
+                 path = new File(path).getParent()) {
+                if (changes.paths.contains(path)) {
+                    names.remove();
+                    statsChanged = true;
+                    break;
+                }
+            }
+        }
+        statsChanged |= !changes.token.equals(watchToken);
+        watchToken = changes.token;
+        watched = true;
+    }
+
+    /** Returns true if syncWithWatcher found every FileStat kept still
+     *  valid, so they can be trusted without a stat call. */
+    boolean isWatched() {
+        return watched;
+    }
+
+    /** Called once every file in NAMES has just had its FileStat brought
+     *  up to date. If syncWithWatcher found a watcher that couldn't tell
+     *  what changed, the FileStats of other files are dropped and its
+     *  token adopted, so the next sync only has to drop what changes. */
+    void finishFullScan(Collection<String> names) {
+        if (pendingToken == null) {
+            return;
+        }
+        stats().keySet().retainAll(names);
+        watchToken = pendingToken;
+        pendingToken = null;
+        statsChanged = true;
+    }
+
+    /** Returns the FileStats kept, by file name. A Stage read with Java
+     *  serialization starts without any. */
+    private HashMap<String, FileStat> stats() {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        return stats;
     }
 
     /** Returns the Stage object from /.gitlet/STAGE.ser
@@ -174,10 +329,14 @@ public class Stage implements Serializable {
         File target = new File("./.gitlet/stage/STAGE.ser");
         if (target.exists()) {
             try {
-                ObjectInputStream inp =
-                        new ObjectInputStream(new FileInputStream(target));
-                result = (Stage) inp.readObject();
-                inp.close();
+                if (RecordIO.isSerialized(target)) {
+                    result = (Stage) RecordIO.readSerialized(target);
+                } else {
+                    try (DataInputStream in = RecordIO.openRecord(target,
+                            RecordIO.STAGE)) {
+                        result = new Stage(in);
+                    }
+                }
             } catch (IOException | ClassNotFoundException excp) {
                 System.out.println("Trouble loading stage: "
                         + excp.getMessage());
@@ -186,14 +345,19 @@ public class Stage implements Serializable {
         return result;
     }
 
-    /** Serializes this Stage then stores in /.gitlet/STAGE.ser. */
+    /** Encodes this Stage then stores in /.gitlet/STAGE.ser. The record is
+     *  written to a temporary file first and then moved over it by
+     *  Journal, so a command that fails halfway leaves the previous Stage
+     *  whole. */
     void storeStage() {
+        File target = new File("./.gitlet/stage/STAGE.ser");
         try {
-            File target = new File("./.gitlet/stage/STAGE.ser");
-            ObjectOutputStream out =
-                    new ObjectOutputStream(new FileOutputStream(target));
-            out.writeObject(this);
-            out.close();
+            File temp = Journal.createTemp();
+            try (DataOutputStream out = RecordIO.createRecord(temp,
+                    RecordIO.STAGE)) {
+                encode(out);
+            }
+            Journal.replace(temp, target);
         } catch (IOException ioe) {
             System.out.println("Trouble storing stage: " + ioe.getMessage());
         }
@@ -239,14 +403,25 @@ public class Stage implements Serializable {
         return addMap.isEmpty() && removeMap.isEmpty();
     }
 
-    /** Transfers a FILE from /.gitlet/stage/ to /.gitlet/files/ directory.
-     * Throws an IllegalArgumentException if such file isn't found. */
-    void transferFileToFilesDir(File file) {
+    /** Transfers the file staged as STOREDNAME from /.gitlet/stage/ to
+     *  /.gitlet/files/ directory. If those contents are already stored,
+     *  the staged copy, if any, is simply dropped. Throws an
+     *  IllegalArgumentException if the contents are neither staged nor
+     *  stored. */
+    void transferFileToFilesDir(String storedName) {
+        File file = new File("./.gitlet/stage/" + storedName);
+        if (ObjectStore.contains(storedName)) {
+            file.delete();
+            return;
+        }
         if (!file.exists()) {
             throw new IllegalArgumentException("The file trying to transfer "
                     + "to commits doesn't exist!");
         }
-        file.renameTo(new File("./.gitlet/files/" + file.getName()));
+        File dest = new File("./.gitlet/files/" + storedName);
+        if (file.renameTo(dest)) {
+            Journal.written(dest);
+        }
     }
 
 
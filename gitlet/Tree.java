@@ -0,0 +1,412 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/** Tree objects: the file maps of commits, kept as a persistent hash trie
+ *  (HAMT) whose nodes are stored in the ObjectStore under the SHA-1 of
+ *  their encoding. A commit only records the hash of its root node, and
+ *  nodes are shared between every commit whose files they describe, so
+ *  committing a change rewrites just the nodes on the path to the changed
+ *  files, and two commits whose root hashes match hold the same files.
+ *
+ *  Files are placed by PATHHASH, a mixed hash code of their name: the
+ *  node at level L picks a child by the L-th four bits of it. The shape of
+ *  a tree only depends on the files it holds, never on the order of
+ *  changes that produced it, so equal file maps always give equal hashes:
+ *  a set of at most LEAF_CAPACITY files, or any set at level MAX_LEVELS,
+ *  is a leaf listing them in name order; a larger set is an internal node
+ *  with one child for each non-empty group of files.
+ *
+ *  Encoding of a leaf: the byte LEAF, the number of files, then each file
+ *  name (modified UTF-8) and the 20 byte stored name of its contents.
+ *  Encoding of an internal node: the byte INTERNAL, the number of files
+ *  below it, a 16 bit mask of present children, then the 20 byte hash of
+ *  each present child in order.
+ *  @author Max Yao
+ */
+class Tree {
+
+    /** Largest number of files in a leaf above the last level. */
+    static final int LEAF_CAPACITY = 64;
+
+    /** Number of levels of internal nodes a 32 bit path hash allows. */
+    static final int MAX_LEVELS = 8;
+
+    /** Number of parsed nodes kept in memory. */
+    private static final int CACHED_NODES = 4096;
+
+    /** Type byte of a leaf. */
+    private static final int LEAF = 1;
+
+    /** Type byte of an internal node. */
+    private static final int INTERNAL = 2;
+
+    /** Number of children of an internal node. */
+    private static final int FANOUT = 16;
+
+    /** Length of a raw SHA-1 hash. */
+    private static final int HASH_BYTES = 20;
+
+    /** Parsed nodes keyed by hash. */
+    static final LruCache<String, Node> CACHE =
+            new LruCache<>(CACHED_NODES);
+
+    /** A parsed node. Leaves have ENTRIES; internal nodes have
+     *  CHILDREN. */
+    private static class Node {
+        /** File names mapped to stored names, if this is a leaf. */
+        private TreeMap<String, String> entries;
+        /** Hashes of the children by hash digit, null where absent, if this
+         *  is an internal node. */
+        private String[] children;
+        /** Number of files at or below this node. */
+        private int count;
+
+        /** Returns true if this node is a leaf. */
+        boolean isLeaf() {
+            return entries != null;
+        }
+    }
+
+    /** Returns the hash of the tree holding exactly the files in ENTRIES,
+     *  which maps file names to stored names, storing any new nodes. */
+    static String build(Map<String, String> entries) {
+        return build(new TreeMap<>(entries), 0);
+    }
+
+    /** Returns the stored name of FILE in the tree ROOT, or null if it
+     *  doesn't hold FILE. */
+    static String lookup(String root, String file) {
+        int hash = pathHash(file);
+        Node node = load(root);
+        for (int level = 0; !node.isLeaf(); level += 1) {
+            String child = node.children[digit(hash, level)];
+            if (child == null) {
+                return null;
+            }
+            node = load(child);
+        }
+        return node.entries.get(file);
+    }
+
+    /** Returns all files of the tree ROOT mapped to their stored names, in
+     *  name order. */
+    static TreeMap<String, String> entries(String root) {
+        TreeMap<String, String> result = new TreeMap<>();
+        collect(load(root), result);
+        return result;
+    }
+
+    /** Returns the hash of the tree ROOT with CHANGES applied. CHANGES maps
+     *  file names to their new stored names, or to null to remove them.
+     *  Only the nodes on the paths to changed files are rewritten. */
+    static String update(String root, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        return update(root, 0, new TreeMap<>(changes));
+    }
+
+    /** Returns every file whose stored name differs between the trees A and
+     *  B, mapped to {stored name in A, stored name in B}, where null means
+     *  the file is absent. Subtrees with equal hashes are skipped without
+     *  being read. */
+    static TreeMap<String, String[]> diff(String a, String b) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(a, b, result);
+        return result;
+    }
+
+    /** Adds to HINTS, for every file of the tree ROOT whose stored name isn't
+     *  already a key, its stored name mapped to the file name. Nodes whose
+     *  hashes are in VISITED are skipped, and every node walked is added to
+     *  VISITED, so walking many trees that share nodes reads each node
+     *  once. */
+    static void collectNames(String root, Set<String> visited,
+                             Map<String, String> hints) {
+        if (!visited.add(root)) {
+            return;
+        }
+        Node node = load(root);
+        if (node.isLeaf()) {
+            for (Map.Entry<String, String> entry : node.entries.entrySet()) {
+                if (!hints.containsKey(entry.getValue())) {
+                    hints.put(entry.getValue(), entry.getKey());
+                }
+            }
+            return;
+        }
+        for (String child : node.children) {
+            if (child != null) {
+                collectNames(child, visited, hints);
+            }
+        }
+    }
+
+    /** Returns the hash of the canonical subtree at LEVEL holding ENTRIES,
+     *  storing any new nodes. */
+    private static String build(TreeMap<String, String> entries, int level) {
+        Node node = new Node();
+        node.count = entries.size();
+        if (entries.size() <= LEAF_CAPACITY || level == MAX_LEVELS) {
+            node.entries = entries;
+            return store(node);
+        }
+        node.children = new String[FANOUT];
+        for (Map.Entry<Integer, TreeMap<String, String>> group
+                : groupByDigit(entries, level).entrySet()) {
+            node.children[group.getKey()] =
+                    build(group.getValue(), level + 1);
+        }
+        return store(node);
+    }
+
+    /** Returns the hash of the subtree HASH at LEVEL with CHANGES applied,
+     *  or null if the result holds no files. HASH may be null for an empty
+     *  subtree. */
+    private static String update(String hash, int level,
+                                 TreeMap<String, String> changes) {
+        Node node = hash == null ? null : load(hash);
+        if (node == null || node.isLeaf()) {
+            TreeMap<String, String> entries = new TreeMap<>();
+            if (node != null) {
+                entries.putAll(node.entries);
+            }
+            applyTo(entries, changes);
+            return entries.isEmpty() && level > 0 ? null
+                    : build(entries, level);
+        }
+        Node updated = new Node();
+        updated.children = node.children.clone();
+        updated.count = node.count;
+        for (Map.Entry<Integer, TreeMap<String, String>> group
+                : groupByDigit(changes, level).entrySet()) {
+            int digit = group.getKey();
+            String oldChild = node.children[digit];
+            int oldCount = oldChild == null ? 0 : load(oldChild).count;
+            String newChild = update(oldChild, level + 1, group.getValue());
+            int newCount = newChild == null ? 0 : load(newChild).count;
+            updated.children[digit] = newChild;
+            updated.count += newCount - oldCount;
+        }
+        if (updated.count <= LEAF_CAPACITY) {
+            TreeMap<String, String> entries = new TreeMap<>();
+            collect(updated, entries);
+            return entries.isEmpty() && level > 0 ? null
+                    : build(entries, level);
+        }
+        return store(updated);
+    }
+
+    /** Adds to RESULT the files of the trees A and B whose stored names
+     *  differ. */
+    private static void diff(String a, String b,
+                             TreeMap<String, String[]> result) {
+        if (a.equals(b)) {
+            return;
+        }
+        Node nodeA = load(a);
+        Node nodeB = load(b);
+        if (!nodeA.isLeaf() && !nodeB.isLeaf()) {
+            for (int d = 0; d < FANOUT; d += 1) {
+                String childA = nodeA.children[d];
+                String childB = nodeB.children[d];
+                if (childA != null && childB != null) {
+                    diff(childA, childB, result);
+                } else if (childA != null || childB != null) {
+                    diffEntries(childA == null ? null : load(childA),
+                            childB == null ? null : load(childB), result);
+                }
+            }
+            return;
+        }
+        diffEntries(nodeA, nodeB, result);
+    }
+
+    /** Adds to RESULT the files whose stored names differ between the
+     *  subtrees A and B, either of which may be null for an empty one. */
+    private static void diffEntries(Node a, Node b,
+                                    TreeMap<String, String[]> result) {
+        TreeMap<String, String> entriesA = new TreeMap<>();
+        TreeMap<String, String> entriesB = new TreeMap<>();
+        if (a != null) {
+            collect(a, entriesA);
+        }
+        if (b != null) {
+            collect(b, entriesB);
+        }
+        for (Map.Entry<String, String> entry : entriesA.entrySet()) {
+            String other = entriesB.get(entry.getKey());
+            if (!entry.getValue().equals(other)) {
+                result.put(entry.getKey(),
+                        new String[] {entry.getValue(), other});
+            }
+        }
+        for (Map.Entry<String, String> entry : entriesB.entrySet()) {
+            if (!entriesA.containsKey(entry.getKey())) {
+                result.put(entry.getKey(),
+                        new String[] {null, entry.getValue()});
+            }
+        }
+    }
+
+    /** Adds every file at or below NODE to RESULT. */
+    private static void collect(Node node, Map<String, String> result) {
+        if (node.isLeaf()) {
+            result.putAll(node.entries);
+            return;
+        }
+        for (String child : node.children) {
+            if (child != null) {
+                collect(load(child), result);
+            }
+        }
+    }
+
+    /** Applies CHANGES, where null values mean removal, to ENTRIES. */
+    private static void applyTo(Map<String, String> entries,
+                                Map<String, String> changes) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                entries.remove(change.getKey());
+            } else {
+                entries.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    /** Returns the files of ENTRIES grouped by their hash digit at
+     *  LEVEL. */
+    private static TreeMap<Integer, TreeMap<String, String>> groupByDigit(
+            TreeMap<String, String> entries, int level) {
+        TreeMap<Integer, TreeMap<String, String>> groups = new TreeMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int digit = digit(pathHash(entry.getKey()), level);
+            TreeMap<String, String> group = groups.get(digit);
+            if (group == null) {
+                group = new TreeMap<>();
+                groups.put(digit, group);
+            }
+            group.put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    /** Returns the hash code FILE is placed by: its String hash code with
+     *  the bits mixed, so similar names land in different subtrees. */
+    private static int pathHash(String file) {
+        int h = file.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Returns the four bit digit of HASH that picks a child at LEVEL. */
+    private static int digit(int hash, int level) {
+        return (hash >>> (28 - 4 * level)) & 0xf;
+    }
+
+    /** Stores NODE in the object store unless it is there already, and
+     *  returns its hash. */
+    private static String store(Node node) {
+        byte[] encoded = encode(node);
+        String hash = ObjectStore.writeObject(encoded);
+        CACHE.put(hash, node);
+        return hash;
+    }
+
+    /** Returns the node stored under HASH. */
+    private static Node load(String hash) {
+        Node cached = CACHE.get(hash);
+        if (cached != null) {
+            return cached;
+        }
+        Node node = decode(ObjectStore.read(hash));
+        CACHE.put(hash, node);
+        return node;
+    }
+
+    /** Returns the encoding of NODE. */
+    private static byte[] encode(Node node) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (node.isLeaf()) {
+                out.writeByte(LEAF);
+                out.writeInt(node.entries.size());
+                for (Map.Entry<String, String> entry
+                        : node.entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.write(hexToBytes(entry.getValue()));
+                }
+            } else {
+                out.writeByte(INTERNAL);
+                out.writeInt(node.count);
+                int mask = 0;
+                for (int d = 0; d < FANOUT; d += 1) {
+                    if (node.children[d] != null) {
+                        mask |= 1 << d;
+                    }
+                }
+                out.writeShort(mask);
+                for (String child : node.children) {
+                    if (child != null) {
+                        out.write(hexToBytes(child));
+                    }
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding tree.");
+        }
+    }
+
+    /** Returns the node encoded in DATA. */
+    private static Node decode(byte[] data) {
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(data));
+            Node node = new Node();
+            byte[] hash = new byte[HASH_BYTES];
+            int type = in.readByte();
+            if (type == LEAF) {
+                node.entries = new TreeMap<>();
+                node.count = in.readInt();
+                for (int i = 0; i < node.count; i += 1) {
+                    String file = in.readUTF();
+                    in.readFully(hash);
+                    node.entries.put(file, bytesToHex(hash));
+                }
+            } else if (type == INTERNAL) {
+                node.count = in.readInt();
+                int mask = in.readUnsignedShort();
+                node.children = new String[FANOUT];
+                for (int d = 0; d < FANOUT; d += 1) {
+                    if ((mask & (1 << d)) != 0) {
+                        in.readFully(hash);
+                        node.children[d] = bytesToHex(hash);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Corrupted tree");
+            }
+            return node;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Corrupted tree");
+        }
+    }
+}
@@ -6,11 +6,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.FileNotFoundException;
 
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
@@ -65,6 +69,44 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns a new SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 hash of the contents of FILE, read in
+     *  Compression.BUFFER_SIZE chunks so no more than one chunk is ever
+     *  held in memory.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static String sha1(File file) {
+        try {
+            return sha1(new FileInputStream(file));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1 hash of everything left in IN, read in
+     *  Compression.BUFFER_SIZE chunks, and closes IN. Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1(InputStream in) {
+        MessageDigest md = sha1Digest();
+        byte[] buffer = new byte[Compression.BUFFER_SIZE];
+        try (InputStream source = in) {
+            int n;
+            while ((n = source.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytesToHex(md.digest());
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -206,6 +248,16 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /** Returns an exclusive lock of CHANNEL, or null if another process,
+     *  or this one, already holds one. */
+    static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException excp) {
+            return null;
+        }
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -251,15 +303,22 @@ class Utils {
     }
 
     /** Takes in a FILE and returns a new name for its copy that is going
-     *  to be stored in /.gitlet/files/ .  The format for this new name is
-     *  going to be like: [SHA-1 String]--[file title].[file type]. */
+     *  to be stored in /.gitlet/files/ .  This new name is the SHA-1
+     *  String of its contents alone, so the same contents are stored once
+     *  whatever the files holding them are called. FILE is streamed, so
+     *  its size doesn't matter. */
     static String storedFileName(File file) {
-        String shaString = sha1(readContents(file));
-        return String.format("%s--%s", shaString, file.getName());
+        return sha1(file);
     }
 
-    /** Short hand for exit code 0. */
+    /** Short hand for exit code 0. Records of an unfinished Journal group
+     *  are dropped first. Inside a Server, only the command is ended, by
+     *  throwing a Server.Exit, and the Server finishes the Journal. */
     static void exit() {
+        if (Server.isServing()) {
+            throw new Server.Exit();
+        }
+        Journal.finish();
         System.exit(0);
     }
 
@@ -273,6 +332,12 @@ class Utils {
         System.out.println(msg);
     }
 
+    /** Returns COUNT followed by NOUN, with an "s" added unless COUNT is
+     *  1, e.g. "1 file" or "3 files". */
+    static String plural(long count, String noun) {
+        return count + " " + noun + (count == 1 ? "" : "s");
+    }
+
     /** Recursively delete a directory F with contents and subdirectories.
      *  Code found on StackOverFlow, title: Delete directories recursively
      *  in java. Will throw IOException if F is not found. */
@@ -297,21 +362,31 @@ class Utils {
         return list;
     }
 
-    /** Using SHA-1 to determine is File F1 has the same contents as
-     *  File F2. Returns true if they do, returns false either if
-     *  they have different contents or any one of the files doesn't exist*/
-    static boolean identicalFiles(File f1, File f2) {
-        if (f1.exists() && f2.exists()) {
-            return sha1(readContents(f1)).equals(sha1(readContents(f2)));
+    /** Lowercase hexadecimal digits by value. */
+    private static final char[] HEX_DIGITS =
+        "0123456789abcdef".toCharArray();
+
+    /** Returns the bytes represented by the hexadecimal string HEX. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("not a hex string");
+            }
+            result[i] = (byte) ((high << 4) | low);
         }
-        return false;
+        return result;
     }
 
-    /** Takes in two Strings LONGSTRING and SHORTSTRING, and returns true if
-     *  the first shortString length of longString is exactly the same as
-     *  shortString, false otherwise. */
-    static boolean stringsMatch(String longString, String shortString) {
-        return longString.substring(0, shortString.length()).equals(
-                shortString);
+    /** Returns BYTES as a lowercase hexadecimal string. */
+    static String bytesToHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
     }
 }
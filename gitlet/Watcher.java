@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import static gitlet.Utils.*;
+
+/** The watch command: a monitor that runs until stopped and records which
+ *  paths of the working directory are created, modified or deleted, so
+ *  commands can trust the FileStats kept in the Stage for every other path
+ *  without even a stat call.
+ *
+ *  While it runs the watcher holds an exclusive lock on /.gitlet/watch/lock,
+ *  which is how commands tell whether it is up. It keeps /.gitlet/watch/state:
+ *  a first line "SESSION SEQUENCE", where SESSION is new every time a
+ *  watcher starts and SEQUENCE counts the batches of events seen, then one
+ *  "SEQUENCE PATH" line for every path changed this session, giving the
+ *  last batch that changed it. A command asking for the changes since a
+ *  token "SESSION:SEQUENCE" first creates a cookie file in /.gitlet/watch/
+ *  and waits for the watcher to delete it, which it does only after writing
+ *  the state for every event before the cookie. If the watcher is down,
+ *  doesn't answer within SYNC_MILLIS, or lost events because the queue of
+ *  the WatchService overflowed, which starts a new session, the command
+ *  gets no changes and has to check every path itself.
+ *  @author Max Yao
+ */
+class Watcher {
+
+    /** Directory holding the lock, the state and the cookies. */
+    static final File WATCH_DIR = new File("./.gitlet/watch/");
+
+    /** The file locked by a running watcher. */
+    static final File LOCK_FILE = new File(WATCH_DIR, "lock");
+
+    /** The file holding the changes seen this session. */
+    static final File STATE_FILE = new File(WATCH_DIR, "state");
+
+    /** Longest a command waits for the watcher to answer a cookie. */
+    static final int SYNC_MILLIS = 1000;
+
+    /** Start of the name of every cookie file. */
+    private static final String COOKIE_PREFIX = "cookie";
+
+    /** The paths changed since a token, as told by a running watcher. */
+    static class Changes {
+        /** The token of the state these changes lead up to. */
+        final String token;
+
+        /** False if the token asked about is from another session, so any
+         *  path may have changed. */
+        final boolean complete;
+
+        /** The paths changed since the token asked about, if complete. */
+        final Set<String> paths;
+
+        /** Changes up to TOKEN, COMPLETE or not, to PATHS. */
+        Changes(String token, boolean complete, Set<String> paths) {
+            this.token = token;
+            this.complete = complete;
+            this.paths = paths;
+        }
+    }
+
+    /** The root of the working directory. */
+    private final Path root = Paths.get(".").toAbsolutePath().normalize();
+
+    /** The watched directory behind each key. */
+    private final HashMap<WatchKey, Path> dirs = new HashMap<>();
+
+    /** The paths changed this session, with the batch that last changed
+     *  each, in the order they were first changed. */
+    private final LinkedHashMap<String, Long> changed = new LinkedHashMap<>();
+
+    /** The service delivering events. */
+    private final WatchService service;
+
+    /** Name of the current session. */
+    private String session;
+
+    /** Number of batches of events seen this session. */
+    private long sequence;
+
+    /** A watcher taking events from SERVICE. */
+    private Watcher(WatchService service) {
+        this.service = service;
+    }
+
+    /** Runs a watcher on the repository in the current directory until the
+     *  process is stopped or the repository deleted. Exits at once if
+     *  another watcher already runs. */
+    static void run() {
+        WATCH_DIR.mkdir();
+        try (FileChannel lock = FileChannel.open(LOCK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService service =
+                     FileSystems.getDefault().newWatchService()) {
+            if (tryLock(lock) == null) {
+                printErrMsg("A watcher is already running.");
+                exit();
+            }
+            Watcher watcher = new Watcher(service);
+            watcher.startSession();
+            watcher.registerTree(watcher.root);
+            watcher.register(WATCH_DIR.toPath().toAbsolutePath().normalize());
+            watcher.writeState();
+            System.out.println("Watching " + watcher.root);
+            watcher.watch();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the changes since TOKEN, which may be null, told by a
+     *  running watcher, or null if no watcher answers. */
+    static Changes changesSince(String token) {
+        if (!isRunning()) {
+            return null;
+        }
+        File cookie;
+        try {
+            cookie = File.createTempFile(COOKIE_PREFIX, "", WATCH_DIR);
+            long deadline = System.currentTimeMillis() + SYNC_MILLIS;
+            while (cookie.exists()) {
+                if (System.currentTimeMillis() > deadline) {
+                    cookie.delete();
+                    return null;
+                }
+                Thread.sleep(1);
+            }
+        } catch (IOException excp) {
+            return null;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return readState(token);
+    }
+
+    /** Returns true if a watcher holds the lock. */
+    static boolean isRunning() {
+        if (!LOCK_FILE.isFile()) {
+            return false;
+        }
+        try (FileChannel lock = FileChannel.open(LOCK_FILE.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock held = tryLock(lock);
+            if (held != null) {
+                held.release();
+                return false;
+            }
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the changes since TOKEN read from STATE_FILE, or null if it
+     *  can't be read. */
+    private static Changes readState(String token) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(STATE_FILE.toPath(),
+                    StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            return null;
+        }
+        if (lines.isEmpty()) {
+            return null;
+        }
+        String[] header = lines.get(0).split(" ");
+        String current = header[0] + ":" + header[1];
+        String prefix = header[0] + ":";
+        if (token == null || !token.startsWith(prefix)) {
+            return new Changes(current, false, new HashSet<>());
+        }
+        long since = Long.parseLong(token.substring(prefix.length()));
+        HashSet<String> paths = new HashSet<>();
+        for (String line : lines.subList(1, lines.size())) {
+            int split = line.indexOf(' ');
+            if (Long.parseLong(line.substring(0, split)) > since) {
+                paths.add(line.substring(split + 1));
+            }
+        }
+        return new Changes(current, true, paths);
+    }
+
+    /** Starts a new session, forgetting the changes seen so far. */
+    private void startSession() {
+        session = UUID.randomUUID().toString();
+        sequence = 0;
+        changed.clear();
+    }
+
+    /** Registers DIR and every directory under it, except /.gitlet/. */
+    private void registerTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,
+                    BasicFileAttributes attributes) throws IOException {
+                if (path.getFileName() != null
+                        && path.getFileName().toString().equals(".gitlet")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Watches DIR for created, modified and deleted entries. */
+    private void register(Path dir) throws IOException {
+        dirs.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY,
+                ENTRY_DELETE), dir);
+    }
+
+    /** Takes events until the root or WATCH_DIR goes away, writing the
+     *  state after each batch that changed anything and then answering
+     *  its cookies. Events of the state file itself are ignored. */
+    private void watch() throws IOException {
+        Path watchDir = WATCH_DIR.toPath().toAbsolutePath().normalize();
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            List<Path> cookies = new ArrayList<>();
+            boolean overflow = false;
+            boolean touched = false;
+            sequence += 1;
+            for (; key != null; key = service.poll()) {
+                Path dir = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    if (dir.equals(watchDir)) {
+                        if (event.kind() == ENTRY_CREATE
+                                && path.getFileName().toString()
+                                .startsWith(COOKIE_PREFIX)) {
+                            cookies.add(path);
+                        }
+                        continue;
+                    }
+                    changed.remove(root.relativize(path).toString());
+                    changed.put(root.relativize(path).toString(), sequence);
+                    touched = true;
+                    if (event.kind() == ENTRY_CREATE
+                            && Files.isDirectory(path)) {
+                        registerTree(path);
+                    }
+                }
+                if (!key.reset()) {
+                    dirs.remove(key);
+                    if (dir.equals(root) || dir.equals(watchDir)) {
+                        return;
+                    }
+                }
+            }
+            if (overflow) {
+                startSession();
+            } else if (!touched && cookies.isEmpty()) {
+                sequence -= 1;
+                continue;
+            }
+            writeState();
+            for (Path cookie : cookies) {
+                Files.deleteIfExists(cookie);
+            }
+        }
+    }
+
+    /** Replaces STATE_FILE with the current session and changes. */
+    private void writeState() throws IOException {
+        StringBuilder state = new StringBuilder();
+        state.append(session).append(' ').append(sequence).append('\n');
+        for (Map.Entry<String, Long> entry : changed.entrySet()) {
+            state.append(entry.getValue()).append(' ')
+                    .append(entry.getKey()).append('\n');
+        }
+        File temp = new File(WATCH_DIR, "state.tmp");
+        writeContents(temp, state.toString());
+        Files.move(temp.toPath(), STATE_FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
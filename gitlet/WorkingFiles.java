@@ -0,0 +1,407 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntConsumer;
+
+/** Works on many working files at once, split across the number of
+ *  threads given by Config.parallelism with a ForkJoinPool: walking the
+ *  working directory, hashing files for status, and copying them into
+ *  /.gitlet/stage/ for add. Restoring files for checkout, reset and merge
+ *  mostly waits on reads and writes, so it runs on Config.ioThreads
+ *  threads instead; see restoreAll.
+ *
+ *  Working files are named by their path from the root of the working
+ *  directory, with / between directories, such as "src/Main.txt"; see
+ *  relativePath. A walk lists every plain file in a directory and the
+ *  directories under it, skipping what IgnoreRules ignore without looking
+ *  inside, with one task for each directory.
+ *
+ *  When hashing or copying, each file is only read if its FileStat shows
+ *  it changed since the Stage last hashed it, or, if a watcher vouched for
+ *  the FileStats of the Stage when hashing, only if it has none. The
+ *  threads only fill in arrays indexed like the names they were given, and
+ *  the Stage is updated afterwards on the calling thread, so the results
+ *  don't depend on how the work was split.
+ *  @author Max Yao
+ */
+class WorkingFiles {
+
+    /** Number of files below which a task isn't split further. */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Returns ARG, a path given on the command line, as the name of a
+     *  working file or directory: relative to the root of the working
+     *  directory, normalized, with / between directories, and "" for the
+     *  root itself. Returns null if ARG is outside the working directory
+     *  or inside /.gitlet. */
+    static String relativePath(String arg) {
+        Path root = Paths.get("").toAbsolutePath();
+        Path path = root.resolve(arg).normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        for (Path part : root.relativize(path)) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(part.toString());
+        }
+        String name = result.toString();
+        if (name.equals(".gitlet") || name.startsWith(".gitlet/")) {
+            return null;
+        }
+        return name;
+    }
+
+    /** Returns the names of every plain file in the working directory DIR,
+     *  "" for the root, and the directories under it, sorted, skipping
+     *  what RULES ignore. */
+    static List<String> walk(String dir, IgnoreRules rules) {
+        Walk all = new Walk(dir, rules, Config.parallelism() > 1);
+        List<String> result;
+        if (all.parallel) {
+            ForkJoinPool pool = new ForkJoinPool(Config.parallelism());
+            try {
+                result = pool.invoke(all);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            result = all.compute();
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Deletes the working file NAME, if it is a plain file, and then every
+     *  directory above it that is left empty. Like restrictedDelete, throws
+     *  an IllegalArgumentException unless run at the root of a working
+     *  directory. */
+    static void delete(String name) {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = new File(name);
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        for (File dir = file.getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                return;
+            }
+        }
+    }
+
+    /** Returns the SHA-1 of the contents of each working file in NAMES, in
+     *  the same order, with null for any that isn't a plain file. The
+     *  FileStats of STAGE are used, and updated, along the way. */
+    static String[] hashAll(Stage stage, String[] names) {
+        final FileStat[] known = new FileStat[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            known[i] = stage.knownStat(names[i]);
+        }
+        final FileStat[] current = new FileStat[names.length];
+        final boolean trusted = stage.isWatched();
+        forEach(names.length, i -> {
+            if (trusted && known[i] != null) {
+                current[i] = known[i];
+            } else {
+                current[i] = FileStat.refresh(new File(names[i]), known[i]);
+            }
+        });
+        String[] hashes = new String[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            stage.updateStat(names[i], current[i]);
+            hashes[i] = current[i] == null ? null : current[i].hash();
+        }
+        return hashes;
+    }
+
+    /** Returns the FileStat, hashed, of each working file in NAMES, in the
+     *  same order, with null for any that isn't a plain file, copying into
+     *  /.gitlet/stage/ every file that may have to be staged: all but
+     *  those whose FileStat kept in STAGE shows them unchanged and holding
+     *  the version in COMMIT or the one staged. STAGE isn't changed. Throws
+     *  IllegalArgumentException if a file can't be read. */
+    static FileStat[] saveAll(Stage stage, Commit commit, String[] names) {
+        final FileStat[] known = new FileStat[names.length];
+        final String[][] held = new String[names.length][];
+        for (int i = 0; i < names.length; i += 1) {
+            known[i] = stage.knownStat(names[i]);
+            held[i] = new String[] {
+                commit.getStoredCommittedFileName(names[i]),
+                stage.getOnStageStoredName(names[i])
+            };
+        }
+        final FileStat[] saved = new FileStat[names.length];
+        forEach(names.length, i -> {
+            File file = new File(names[i]);
+            FileStat before = FileStat.of(file);
+            if (before == null) {
+                return;
+            }
+            if (known[i] != null && known[i].stillMatches(before)
+                    && Arrays.asList(held[i]).contains(known[i].hash())) {
+                saved[i] = known[i];
+            } else {
+                saved[i] = before.withHash(Stage.storeCopy(file));
+            }
+        });
+        return saved;
+    }
+
+    /** Restores each working file in NAMES as COMMIT tracks it, and returns
+     *  their FileStats, hashed, in the same order, with null for any that
+     *  couldn't be written. Each file is read, decoded and written as a
+     *  stream through one buffer, Config.ioThreads files at once, so
+     *  waiting on the reads or writes of one overlaps with work on the
+     *  others. At most twice that many files are queued, so memory stays
+     *  bounded however many there are. Files that can't be restored are
+     *  reported once all are done, in the order of NAMES, so what is
+     *  printed doesn't depend on timing. */
+    static FileStat[] restoreAll(Commit commit, String[] names) {
+        final String[] versions = new String[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            versions[i] = commit.getStoredCommittedFileName(names[i]);
+        }
+        final FileStat[] restored = new FileStat[names.length];
+        final RuntimeException[] failures =
+                new RuntimeException[names.length];
+        IntConsumer work = i -> {
+            try {
+                File file = new File(names[i]);
+                ObjectStore.restore(versions[i], file);
+                FileStat stat = FileStat.of(file);
+                restored[i] = stat == null ? null : stat.withHash(versions[i]);
+            } catch (RuntimeException excp) {
+                failures[i] = excp;
+            }
+        };
+        int threads = Math.min(Config.ioThreads(), names.length);
+        if (threads <= 1) {
+            for (int i = 0; i < names.length; i += 1) {
+                work.accept(i);
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads,
+                    task -> {
+                        Thread thread = new Thread(task, "gitlet-restore");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            Semaphore queued = new Semaphore(2 * threads);
+            for (int i = 0; i < names.length; i += 1) {
+                final int index = i;
+                queued.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        work.accept(index);
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+            queued.acquireUninterruptibly(2 * threads);
+            pool.shutdown();
+        }
+        for (RuntimeException failure : failures) {
+            if (failure instanceof IllegalArgumentException) {
+                System.out.printf("An IAE occurred %s%n",
+                        failure.getMessage());
+            } else if (failure != null) {
+                throw failure;
+            }
+        }
+        return restored;
+    }
+
+    /** Returns the names of the working files ARG, given on the command
+     *  line, stands for, sorted: the file it names, every file in the
+     *  directory it names, or, if it names nothing and holds any of
+     *  * ? [ {, every file matching it as a glob, where * and ? stay
+     *  within a name and ** doesn't. Directories are walked skipping what
+     *  RULES ignore. Returns an empty list if nothing matches. */
+    static List<String> expand(String arg, IgnoreRules rules) {
+        String path = relativePath(arg);
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        File file = new File(path.isEmpty() ? "." : path);
+        if (file.isFile()) {
+            return Collections.singletonList(path);
+        } else if (file.isDirectory()) {
+            return walk(path, rules);
+        }
+        int glob = indexOfGlob(path);
+        if (glob < 0) {
+            return Collections.emptyList();
+        }
+        String dir = path.substring(0, Math.max(0,
+                path.lastIndexOf('/', glob)));
+        if (!new File(dir.isEmpty() ? "." : dir).isDirectory()) {
+            return Collections.emptyList();
+        }
+        PathMatcher matcher =
+                FileSystems.getDefault().getPathMatcher("glob:" + path);
+        List<String> result = new ArrayList<>();
+        for (String name : walk(dir, rules)) {
+            if (matcher.matches(Paths.get(name))) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the index of the first glob character in PATH, or -1. */
+    private static int indexOfGlob(String path) {
+        for (int i = 0; i < path.length(); i += 1) {
+            if ("*?[{".indexOf(path.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Runs WORK for every index below N, on as many threads as
+     *  Config.parallelism allows. */
+    static void forEach(int n, IntConsumer work) {
+        Range all = new Range(work, 0, n);
+        int threads = Config.parallelism();
+        if (threads == 1 || n <= SPLIT_THRESHOLD) {
+            all.runRange();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(all);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Lists the plain files of a directory and, through one subtask for
+     *  each directory in it, of the directories under it. */
+    private static class Walk extends RecursiveTask<List<String>> {
+
+        /** serialVersionUID, as ForkJoinTask is Serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** Name of the directory, "" for the root. */
+        private final String dir;
+
+        /** What to skip. */
+        private final IgnoreRules rules;
+
+        /** True if subtasks are forked rather than run in turn. */
+        private final boolean parallel;
+
+        /** A task listing the directory DIR, skipping what RULES ignore,
+         *  in PARALLEL or not. */
+        Walk(String dir, IgnoreRules rules, boolean parallel) {
+            this.dir = dir;
+            this.rules = rules;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            List<Walk> subdirs = new ArrayList<>();
+            Path path = Paths.get(dir.isEmpty() ? "." : dir);
+            try (DirectoryStream<Path> entries =
+                         Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (!dir.isEmpty()) {
+                        name = dir + "/" + name;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(
+                            entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!rules.isIgnored(name, true)) {
+                            subdirs.add(new Walk(name, rules, parallel));
+                        }
+                    } else if (attributes.isRegularFile()
+                            && !rules.isIgnored(name, false)) {
+                        files.add(name);
+                    }
+                }
+            } catch (IOException excp) {
+                return files;
+            }
+            if (parallel) {
+                invokeAll(subdirs);
+            }
+            for (Walk subdir : subdirs) {
+                files.addAll(parallel ? subdir.join() : subdir.compute());
+            }
+            return files;
+        }
+    }
+
+    /** Does the work for a range of indices, halving it until it is small
+     *  enough to do directly. */
+    private static class Range extends RecursiveAction {
+
+        /** serialVersionUID, as ForkJoinTask is Serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** The work for one index. */
+        private final transient IntConsumer work;
+
+        /** First index of the range. */
+        private final int from;
+
+        /** Index just past the range. */
+        private final int to;
+
+        /** A task doing WORK for every index from FROM up to TO. */
+        Range(IntConsumer work, int from, int to) {
+            this.work = work;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                runRange();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Range(work, from, mid), new Range(work, mid, to));
+        }
+
+        /** Does the work of the whole range on this thread. */
+        void runRange() {
+            for (int i = from; i < to; i += 1) {
+                work.accept(i);
+            }
+        }
+    }
+}